@@ -0,0 +1,345 @@
+package com.nbk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Audit trail of viewer requests, written off the request thread.
+ *
+ * Request threads hand records to a bounded lock-free ring; a single writer
+ * thread drains it in batches. With {@code app.audit.sink=jsonl} each batch
+ * is appended to {@code <dir>/audit.jsonl} as JSON lines in one write, and the
+ * file is forced to disk at most every {@code fsync-interval-ms} (0 = every
+ * batch, negative = never). The file rolls daily to
+ * {@code audit.<yyyy-MM-dd>.jsonl}. {@code sink=logger} keeps the legacy
+ * {@code AUDIT_LOGGER} text line, still written by the writer thread.
+ *
+ * When the ring is full, {@code when-full=block} (the default) waits up to
+ * {@code block-timeout-ms} for room and then writes the record on the caller's
+ * thread, so no record is lost to load; it may land out of order with queued
+ * ones. {@code drop} discards the record instead and counts it.
+ */
+@Component
+public class AuditLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditLog.class);
+    private static final Logger auditLogger = LoggerFactory.getLogger("AUDIT_LOGGER");
+
+    private static final String CURRENT_FILE = "audit.jsonl";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    @Value("${app.audit.sink:jsonl}")
+    private String sink;
+
+    @Value("${app.audit.dir:logs}")
+    private String directory;
+
+    @Value("${app.audit.buffer-size:8192}")
+    private int bufferSize;
+
+    @Value("${app.audit.batch-size:256}")
+    private int batchSize;
+
+    @Value("${app.audit.when-full:block}")
+    private String whenFull;
+
+    @Value("${app.audit.block-timeout-ms:100}")
+    private long blockTimeoutMs;
+
+    @Value("${app.audit.fsync-interval-ms:1000}")
+    private long fsyncIntervalMs;
+
+    @Value("${app.audit.max-history:90}")
+    private int maxHistoryDays;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+
+    private AuditRing<AuditRecord> ring;
+    private boolean jsonl;
+    private boolean blockWhenFull;
+    private Thread writer;
+    private volatile boolean running;
+
+    // The writer thread, and request threads writing overflow, take fileLock
+    private final Object fileLock = new Object();
+    private FileChannel channel;
+    private LocalDate channelDate;
+    private long lastSyncNanos;
+    private boolean unsynced;
+
+    public AuditLog(MeterRegistry registry) {
+        FunctionCounter.builder("viewer.audit.records", written, AtomicLong::get).tag("result", "written")
+                .description("Audit records by outcome").register(registry);
+        FunctionCounter.builder("viewer.audit.records", dropped, AtomicLong::get).tag("result", "dropped")
+                .description("Audit records by outcome").register(registry);
+        FunctionCounter.builder("viewer.audit.records", failed, AtomicLong::get).tag("result", "failed")
+                .description("Audit records by outcome").register(registry);
+        FunctionCounter.builder("viewer.audit.overflow", overflowed, AtomicLong::get)
+                .description("Audit records written on the request thread because the buffer stayed full")
+                .register(registry);
+        Gauge.builder("viewer.audit.backlog", this, AuditLog::backlog).register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        jsonl = !"logger".equalsIgnoreCase(sink);
+        blockWhenFull = "block".equalsIgnoreCase(whenFull);
+        ring = new AuditRing<>(bufferSize);
+        running = true;
+        writer = new Thread(this::drain, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+        logger.info("Audit log started: sink={}, buffer={}, whenFull={}, fsyncIntervalMs={}",
+                jsonl ? "jsonl" : "logger", ring.capacity(), blockWhenFull ? "block" : "drop", fsyncIntervalMs);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * Queues a record; touches the disk on the caller's thread only when the
+     * ring is still full after {@code block-timeout-ms}.
+     */
+    public void record(AuditRecord record) {
+        if (ring.offer(record)) {
+            return;
+        }
+        if (!blockWhenFull) {
+            dropped.incrementAndGet();
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+        LockSupport.unpark(writer);
+        while (System.nanoTime() < deadline) {
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+            if (ring.offer(record)) {
+                return;
+            }
+        }
+        // Still full: write it here rather than lose it
+        overflowed.incrementAndGet();
+        writeBatch(Collections.singletonList(record), new ByteArrayOutputStream(512));
+    }
+
+    public int backlog() {
+        return ring.size();
+    }
+
+    // ─── Writer thread ─────────────────────────────────────────────────────────
+
+    private void drain() {
+        List<AuditRecord> batch = new ArrayList<>(batchSize);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+        while (true) {
+            AuditRecord record;
+            while (batch.size() < batchSize && (record = ring.poll()) != null) {
+                batch.add(record);
+            }
+            if (batch.isEmpty()) {
+                if (!running) {
+                    break;
+                }
+                syncIfDue();
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            writeBatch(batch, buffer);
+            batch.clear();
+        }
+        closeChannel();
+    }
+
+    private void writeBatch(List<AuditRecord> batch, ByteArrayOutputStream buffer) {
+        synchronized (fileLock) {
+            try {
+                if (jsonl) {
+                    writeJsonLines(batch, buffer);
+                } else {
+                    for (AuditRecord r : batch) {
+                        writeLogLine(r);
+                    }
+                }
+                written.addAndGet(batch.size());
+            } catch (Exception e) {
+                failed.addAndGet(batch.size());
+                logger.error("Failed to write {} audit records: {}", batch.size(), e.getMessage());
+                closeChannel();
+            }
+        }
+    }
+
+    private void writeJsonLines(List<AuditRecord> batch, ByteArrayOutputStream buffer) throws IOException {
+        buffer.reset();
+        try (JsonGenerator json = jsonFactory.createGenerator(buffer, JsonEncoding.UTF8)) {
+            json.setRootValueSeparator(null);
+            for (AuditRecord r : batch) {
+                writeJson(json, r);
+                json.writeRaw('\n');
+            }
+        }
+        FileChannel out = channelFor(LocalDate.now());
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+        unsynced = true;
+        syncIfDue();
+    }
+
+    private static void writeJson(JsonGenerator json, AuditRecord r) throws IOException {
+        LinkIdentity identity = r.getIdentity();
+        json.writeStartObject();
+        json.writeStringField("ts", Instant.ofEpochMilli(r.getTimestampMs()).toString());
+        json.writeStringField("ip", r.getClientIp());
+        json.writeStringField("user", identity != null ? identity.getUserId() : null);
+        json.writeStringField("transId", identity != null ? identity.getTransactionId() : null);
+        json.writeStringField("cif", identity != null ? identity.getCif() : null);
+        json.writeStringField("status", r.isSuccess() ? "SUCCESS" : "FAILED");
+        json.writeObjectFieldStart("latencyMs");
+        for (Map.Entry<String, Long> stage : r.getStageNanos().entrySet()) {
+            json.writeNumberField(stage.getKey(), toMillis(stage.getValue()));
+        }
+        json.writeNumberField("total", toMillis(r.getTotalNanos()));
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / 10_000.0) / 100.0;
+    }
+
+    private static void writeLogLine(AuditRecord r) {
+        LinkIdentity identity = r.getIdentity();
+        auditLogger.info(
+                "{} | ip={} | user={} | transId={} | cif={} | status={}",
+                Instant.ofEpochMilli(r.getTimestampMs()), r.getClientIp(),
+                identity != null ? identity.getUserId() : "UNAUTHORIZED",
+                identity != null ? identity.getTransactionId() : "UNKNOWN",
+                identity != null ? identity.getCif() : "UNAUTHORIZED",
+                r.isSuccess() ? "SUCCESS" : "FAILED");
+    }
+
+    private void syncIfDue() {
+        synchronized (fileLock) {
+            if (!unsynced || channel == null || fsyncIntervalMs < 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (lastSyncNanos != 0 && now - lastSyncNanos < TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs)) {
+                return;
+            }
+            try {
+                channel.force(false);
+                unsynced = false;
+                lastSyncNanos = now;
+            } catch (IOException e) {
+                logger.error("Failed to sync audit log: {}", e.getMessage());
+            }
+        }
+    }
+
+    // ─── Daily files ───────────────────────────────────────────────────────────
+
+    private FileChannel channelFor(LocalDate today) throws IOException {
+        if (channel != null && today.equals(channelDate)) {
+            return channel;
+        }
+        Path dir = Paths.get(directory);
+        Path current = dir.resolve(CURRENT_FILE);
+        closeChannel();
+        Files.createDirectories(dir);
+
+        // Roll a file left over from an earlier day, whether from this run or the last one
+        if (Files.exists(current)) {
+            LocalDate modified = Files.getLastModifiedTime(current).toInstant()
+                    .atZone(ZoneId.systemDefault()).toLocalDate();
+            if (modified.isBefore(today)) {
+                Files.move(current, dir.resolve("audit." + modified + ".jsonl"));
+                deleteExpired(dir, today);
+            }
+        }
+        channel = FileChannel.open(current, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        channelDate = today;
+        return channel;
+    }
+
+    private void deleteExpired(Path dir, LocalDate today) {
+        if (maxHistoryDays <= 0) {
+            return;
+        }
+        LocalDate oldest = today.minusDays(maxHistoryDays);
+        try (DirectoryStream<Path> rolled = Files.newDirectoryStream(dir, "audit.????-??-??.jsonl")) {
+            for (Path file : rolled) {
+                String name = file.getFileName().toString();
+                LocalDate date = LocalDate.parse(name.substring("audit.".length(), name.length() - ".jsonl".length()));
+                if (date.isBefore(oldest)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to prune old audit files: {}", e.getMessage());
+        }
+    }
+
+    private void closeChannel() {
+        synchronized (fileLock) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                if (unsynced && fsyncIntervalMs >= 0) {
+                    channel.force(false);
+                }
+                unsynced = false;
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close audit file: {}", e.getMessage());
+            }
+            channel = null;
+            channelDate = null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.nbk;
+
+import java.util.Map;
+
+/**
+ * One audited view: who asked, from where, the outcome and where the time went.
+ */
+public final class AuditRecord {
+
+    private final long timestampMs;
+    private final String clientIp;
+    private final LinkIdentity identity;
+    private final boolean success;
+    private final Map<String, Long> stageNanos;
+    private final long totalNanos;
+
+    public AuditRecord(long timestampMs, String clientIp, LinkIdentity identity, boolean success,
+            Map<String, Long> stageNanos, long totalNanos) {
+        this.timestampMs = timestampMs;
+        this.clientIp = clientIp;
+        this.identity = identity;
+        this.success = success;
+        this.stageNanos = stageNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    public long getTimestampMs() {
+        return timestampMs;
+    }
+
+    public String getClientIp() {
+        return clientIp;
+    }
+
+    /**
+     * The validated link identity, or {@code null} if the link did not validate.
+     */
+    public LinkIdentity getIdentity() {
+        return identity;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public Map<String, Long> getStageNanos() {
+        return stageNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+}
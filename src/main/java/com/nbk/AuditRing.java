@@ -0,0 +1,80 @@
+package com.nbk;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring for many producers and a single consumer.
+ *
+ * Every slot carries a sequence number: {@code pos} when free for the producer
+ * claiming position {@code pos}, {@code pos + 1} once filled. Producers claim
+ * positions with a CAS on the tail; the consumer owns the head.
+ */
+final class AuditRing<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // Written by the consumer only; volatile so size() can read it
+    private volatile long head;
+
+    AuditRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds {@code e} unless the ring is full.
+     */
+    boolean offer(E e) {
+        long pos = tail.get();
+        for (;;) {
+            int index = (int) (pos & mask);
+            long lag = sequences.get(index) - pos;
+            if (lag == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(index, e);
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (lag < 0) {
+                // The consumer has not freed this slot from the previous lap yet
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Next element, or {@code null} if none is ready. Consumer thread only.
+     */
+    E poll() {
+        long pos = head;
+        int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            return null;
+        }
+        E e = slots.get(index);
+        slots.lazySet(index, null);
+        sequences.lazySet(index, pos + mask + 1);
+        head = pos + 1;
+        return e;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
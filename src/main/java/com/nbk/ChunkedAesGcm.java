@@ -0,0 +1,139 @@
+package com.nbk;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES-GCM over fixed-size chunks, so a payload can be sealed and opened piece
+ * by piece instead of in one {@code doFinal}.
+ *
+ * Layout: {@code chunk_0 | chunk_1 | ... } where every chunk is up to
+ * {@code chunkSize} bytes of ciphertext followed by its 16-byte tag. Chunk
+ * {@code i} uses the base nonce with its last four bytes XORed with {@code i},
+ * and authenticates {@code i} (4 bytes, big-endian) plus a final-chunk flag as
+ * AAD, so chunks cannot be reordered, dropped or truncated unnoticed. An empty
+ * payload is one empty chunk.
+ *
+ * On the wire the chunks follow a {@link #header} that tells the reader how
+ * to cut the stream, so it can open each chunk as soon as it has arrived.
+ */
+public final class ChunkedAesGcm {
+
+    public static final int NONCE_BYTES = 12;
+    public static final int TAG_BYTES = 16;
+
+    // "NBKS" | version | chunkSize (u32) | plainLength (u32) | base nonce
+    public static final int HEADER_BYTES = 4 + 1 + 4 + 4 + NONCE_BYTES;
+    private static final byte[] MAGIC = { 'N', 'B', 'K', 'S' };
+    private static final byte VERSION = 1;
+
+    // Chunk sizes accepted for app.viewer.chunk-size
+    public static final int MIN_CHUNK_SIZE = 1024;
+    public static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final CipherPool GCM_CIPHERS = new CipherPool("AES/GCM/NoPadding");
+
+    private ChunkedAesGcm() {
+    }
+
+    public static int chunkCount(int plainLength, int chunkSize) {
+        return Math.max(1, (plainLength + chunkSize - 1) / chunkSize);
+    }
+
+    public static int sealedLength(int plainLength, int chunkSize) {
+        return plainLength + chunkCount(plainLength, chunkSize) * TAG_BYTES;
+    }
+
+    /**
+     * Segment header for a payload sealed with these parameters. Integers are big-endian.
+     */
+    public static byte[] header(byte[] baseNonce, int chunkSize, int plainLength) {
+        return ByteBuffer.allocate(HEADER_BYTES)
+                .put(MAGIC)
+                .put(VERSION)
+                .putInt(chunkSize)
+                .putInt(plainLength)
+                .put(baseNonce)
+                .array();
+    }
+
+    /**
+     * Seals {@code plain} into one array of exactly {@link #sealedLength} bytes,
+     * on the calling thread so the work stays on the bounded viewer stage
+     * executors.
+     */
+    public static byte[] encrypt(byte[] plain, byte[] key, byte[] baseNonce, int chunkSize)
+            throws GeneralSecurityException {
+        checkChunkSize(chunkSize);
+        int chunks = chunkCount(plain.length, chunkSize);
+        byte[] out = new byte[plain.length + chunks * TAG_BYTES];
+        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        for (int i = 0; i < chunks; i++) {
+            sealChunk(plain, out, keySpec, baseNonce, chunkSize, i, chunks);
+        }
+        return out;
+    }
+
+    /**
+     * Opens a payload produced by {@link #encrypt}; fails if any chunk was altered.
+     */
+    public static byte[] decrypt(byte[] sealed, byte[] key, byte[] baseNonce, int chunkSize)
+            throws GeneralSecurityException {
+        checkChunkSize(chunkSize);
+        int sealedChunk = chunkSize + TAG_BYTES;
+        int chunks = Math.max(1, (sealed.length + sealedChunk - 1) / sealedChunk);
+        if (sealed.length - chunks * TAG_BYTES < 0) {
+            throw new SecurityException("Truncated payload");
+        }
+        byte[] out = new byte[sealed.length - chunks * TAG_BYTES];
+        SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        for (int i = 0; i < chunks; i++) {
+            int from = i * sealedChunk;
+            int length = Math.min(sealedChunk, sealed.length - from);
+            Cipher cipher = GCM_CIPHERS.get();
+            cipher.init(Cipher.DECRYPT_MODE, keySpec,
+                    new GCMParameterSpec(TAG_BYTES * 8, chunkNonce(baseNonce, i)));
+            cipher.updateAAD(chunkAad(i, i == chunks - 1));
+            cipher.doFinal(sealed, from, length, out, i * chunkSize);
+        }
+        return out;
+    }
+
+    private static void sealChunk(byte[] plain, byte[] out, SecretKeySpec keySpec, byte[] baseNonce,
+            int chunkSize, int index, int chunks) throws GeneralSecurityException {
+        int from = index * chunkSize;
+        int length = Math.min(chunkSize, plain.length - from);
+        Cipher cipher = GCM_CIPHERS.get();
+        cipher.init(Cipher.ENCRYPT_MODE, keySpec,
+                new GCMParameterSpec(TAG_BYTES * 8, chunkNonce(baseNonce, index)));
+        cipher.updateAAD(chunkAad(index, index == chunks - 1));
+        cipher.doFinal(plain, from, length, out, from + index * TAG_BYTES);
+    }
+
+    /** Throws {@link IllegalArgumentException} unless {@code chunkSize} is within the supported range. */
+    public static void checkChunkSize(int chunkSize) {
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be " + MIN_CHUNK_SIZE + "-" + MAX_CHUNK_SIZE
+                    + " bytes: " + chunkSize);
+        }
+    }
+
+    static byte[] chunkNonce(byte[] baseNonce, int index) {
+        byte[] nonce = baseNonce.clone();
+        nonce[NONCE_BYTES - 4] ^= (byte) (index >>> 24);
+        nonce[NONCE_BYTES - 3] ^= (byte) (index >>> 16);
+        nonce[NONCE_BYTES - 2] ^= (byte) (index >>> 8);
+        nonce[NONCE_BYTES - 1] ^= (byte) index;
+        return nonce;
+    }
+
+    static byte[] chunkAad(int index, boolean last) {
+        return new byte[] {
+                (byte) (index >>> 24), (byte) (index >>> 16), (byte) (index >>> 8), (byte) index,
+                (byte) (last ? 1 : 0) };
+    }
+}
@@ -0,0 +1,83 @@
+package com.nbk;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+import javax.crypto.Cipher;
+
+/**
+ * Per-thread cache of {@link Cipher} instances for one transformation.
+ *
+ * {@code Cipher.getInstance} walks the provider list on every call, which is a
+ * measurable share of a viewer request. A Cipher is not thread-safe, so each
+ * worker thread keeps its own instance and reuses it.
+ *
+ * For keys without per-operation parameters (RSA) the cipher is also left
+ * initialised: {@code doFinal} resets it to its post-{@code init} state, so a
+ * second call with the same key and mode skips {@code init} entirely.
+ * Ciphers that need a fresh IV or nonce per message must use {@link #get()}
+ * and call {@code init} themselves.
+ */
+public final class CipherPool {
+
+    private final String transformation;
+    private final ThreadLocal<Slot> slots;
+
+    private static final class Slot {
+        final Cipher cipher;
+        Key key;
+        int mode;
+
+        Slot(Cipher cipher) {
+            this.cipher = cipher;
+        }
+    }
+
+    public CipherPool(String transformation) {
+        this.transformation = transformation;
+        this.slots = ThreadLocal.withInitial(() -> {
+            try {
+                return new Slot(Cipher.getInstance(transformation));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cipher not available: " + transformation, e);
+            }
+        });
+    }
+
+    public String getTransformation() {
+        return transformation;
+    }
+
+    /**
+     * Returns this thread's cipher, initialised for {@code mode} with {@code key}.
+     * Re-initialises only when the key or mode differs from the previous call.
+     */
+    public Cipher get(int mode, Key key) throws GeneralSecurityException {
+        Slot slot = slots.get();
+        if (slot.key != key || slot.mode != mode) {
+            slot.key = null; // stays invalid if init throws
+            slot.cipher.init(mode, key);
+            slot.key = key;
+            slot.mode = mode;
+        }
+        return slot.cipher;
+    }
+
+    /**
+     * Returns this thread's cipher without initialising it. The caller must call
+     * {@code init} before use.
+     */
+    public Cipher get() {
+        Slot slot = slots.get();
+        slot.key = null; // caller is about to re-init with its own parameters
+        return slot.cipher;
+    }
+
+    /**
+     * Forgets the cached initialisation for this thread, e.g. after a failed
+     * {@code doFinal} left the cipher in an unknown state.
+     */
+    public void reset() {
+        slots.get().key = null;
+    }
+}
@@ -0,0 +1,63 @@
+package com.nbk;
+
+/**
+ * File format of an upstream document, recognised from its leading bytes so
+ * it can be routed before anything tries to parse it.
+ */
+public enum DocumentFormat {
+
+    PDF("application/pdf"),
+    JPEG("image/jpeg"),
+    PNG("image/png"),
+    TIFF("image/tiff"),
+    UNKNOWN("application/octet-stream");
+
+    // PDF readers accept the header anywhere in the first KB
+    private static final int PDF_HEADER_WINDOW = 1024;
+    private static final byte[] PDF_MAGIC = { '%', 'P', 'D', 'F', '-' };
+    private static final byte[] PNG_MAGIC = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final byte[] JPEG_MAGIC = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF };
+    private static final byte[] TIFF_LE_MAGIC = { 'I', 'I', 42, 0 };
+    private static final byte[] TIFF_BE_MAGIC = { 'M', 'M', 0, 42 };
+
+    private final String mimeType;
+
+    DocumentFormat(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public static DocumentFormat sniff(byte[] data) {
+        if (startsWith(data, 0, PNG_MAGIC)) {
+            return PNG;
+        }
+        if (startsWith(data, 0, JPEG_MAGIC)) {
+            return JPEG;
+        }
+        if (startsWith(data, 0, TIFF_LE_MAGIC) || startsWith(data, 0, TIFF_BE_MAGIC)) {
+            return TIFF;
+        }
+        int window = Math.min(data.length, PDF_HEADER_WINDOW);
+        for (int i = 0; i + PDF_MAGIC.length <= window; i++) {
+            if (startsWith(data, i, PDF_MAGIC)) {
+                return PDF;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] magic) {
+        if (data.length - offset < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (data[offset + i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
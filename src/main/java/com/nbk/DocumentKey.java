@@ -0,0 +1,54 @@
+package com.nbk;
+
+import java.util.Objects;
+
+/**
+ * Identity of an upstream Laserfiche document request — the fields sent in the
+ * GetDocument body. Two requests with the same key return the same document.
+ */
+public final class DocumentKey {
+
+    private final String caseId;
+    private final String requestId;
+    private final String documentType;
+
+    public DocumentKey(String caseId, String requestId, String documentType) {
+        this.caseId = caseId;
+        this.requestId = requestId;
+        this.documentType = documentType;
+    }
+
+    public String getCaseId() {
+        return caseId;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public String getDocumentType() {
+        return documentType;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof DocumentKey))
+            return false;
+        DocumentKey other = (DocumentKey) o;
+        return Objects.equals(caseId, other.caseId)
+                && Objects.equals(requestId, other.requestId)
+                && Objects.equals(documentType, other.documentType);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(caseId, requestId, documentType);
+    }
+
+    @Override
+    public String toString() {
+        return "CaseID=" + caseId + ", RequestID=" + requestId + ", DocumentType=" + documentType;
+    }
+}
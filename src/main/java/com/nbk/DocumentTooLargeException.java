@@ -0,0 +1,16 @@
+package com.nbk;
+
+import java.io.IOException;
+
+/**
+ * A document whose rendering would not fit the render memory budget, even on
+ * an otherwise idle node.
+ */
+public class DocumentTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DocumentTooLargeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,16 @@
+package com.nbk;
+
+import java.io.IOException;
+
+/**
+ * An upstream document that renders to no pages at all: a PDF without pages
+ * or a TIFF without frames.
+ */
+public class EmptyDocumentException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public EmptyDocumentException(String message) {
+        super(message);
+    }
+}
@@ -1,18 +1,35 @@
 package com.nbk;
 
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.stereotype.Component;
 
 /**
  * Utility for the Secure Identity Transfer Project.
  * Enhances service time by allowing instant user verification
  * and provides a unified user experience across banking platforms.
+ *
+ * The static helpers take explicit keys; the bean instance binds them to the
+ * {@link KeyProvider} so callers do not have to thread keys through.
  */
+@Component
 public class EncryptionOfTime {
 
     // CONFIGURATION
@@ -23,6 +40,53 @@ public class EncryptionOfTime {
     
     private static final String ALGORITHM = "RSA/ECB/PKCS1Padding"; 
 
+    // Provider lookup is paid once per thread instead of once per token
+    private static final CipherPool RSA_CIPHERS = new CipherPool(ALGORITHM);
+
+    // v2 envelope: one RSA-wrapped data key + AES-GCM payload (SunJCE OAEP uses MGF1/SHA-1)
+    private static final byte ENVELOPE_VERSION = 2;
+    private static final String WRAP_ALGORITHM = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+    private static final CipherPool WRAP_CIPHERS = new CipherPool(WRAP_ALGORITHM);
+    private static final CipherPool GCM_CIPHERS = new CipherPool("AES/GCM/NoPadding");
+    private static final int DATA_KEY_SIZE = 16;
+    private static final int GCM_NONCE_SIZE = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final SecureRandom RNG = new SecureRandom();
+
+    private final KeyProvider keyProvider;
+
+    public EncryptionOfTime(KeyProvider keyProvider) {
+        this.keyProvider = keyProvider;
+    }
+
+    /**
+     * Encrypts {@code value} with the active public key.
+     */
+    public String generateToken(String value) throws Exception {
+        return generateEncryptedToken(value, keyProvider.getPublicKey());
+    }
+
+    /**
+     * Decrypts and validates {@code token} against every known private key.
+     */
+    public String validateToken(String token) throws Exception {
+        return decryptAndValidate(token, keyProvider.getDecryptionKeys());
+    }
+
+    /**
+     * Seals the whole link identity into one v2 envelope under the active key.
+     */
+    public String generateEnvelope(LinkIdentity identity) throws Exception {
+        return generateEnvelopeToken(identity, keyProvider.getActiveKeyId(), keyProvider.getPublicKey());
+    }
+
+    /**
+     * Opens and validates a v2 envelope, picking the private key by its embedded key id.
+     */
+    public LinkIdentity validateEnvelope(String token) throws Exception {
+        return decryptAndValidateEnvelope(token, keyProvider::getPrivateKey);
+    }
+
     /**
      * FUNCTION 1: ENCRYPTION (T24 Side)
      * Wraps user identity in a digital vault for secure transfer.
@@ -36,9 +100,14 @@ public class EncryptionOfTime {
         // Pack the data: "USER_ID|TIMESTAMP"
         String payload = userId + "|" + t24Time;
 
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-        byte[] encryptedBytes = cipher.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        Cipher cipher = RSA_CIPHERS.get(Cipher.ENCRYPT_MODE, publicKey);
+        byte[] encryptedBytes;
+        try {
+            encryptedBytes = cipher.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            RSA_CIPHERS.reset();
+            throw e;
+        }
 
         // URL-Safe Base64 ensures the token doesn't break browser URLs
         return Base64.getUrlEncoder().withoutPadding().encodeToString(encryptedBytes);
@@ -53,43 +122,220 @@ public class EncryptionOfTime {
      * @throws SecurityException if expired or tampering is detected
      */
     public static String decryptAndValidate(String token, PrivateKey privateKey) throws Exception {
+        return decryptAndValidate(token, Collections.singletonList(privateKey));
+    }
+
+    /**
+     * Same as {@link #decryptAndValidate(String, PrivateKey)} but tries each key in
+     * turn, so links issued before a key rotation still validate. A wrong key
+     * passes the PKCS#1 padding check about once in 2^16, so a key only matches
+     * once its plaintext also parses as a payload.
+     * * @param token The encrypted data parameter from the URL
+     * @param privateKeys Candidate keys, most likely first
+     * @return The userId if valid
+     * @throws SecurityException if expired, tampered, or no key matches
+     */
+    public static String decryptAndValidate(String token, List<PrivateKey> privateKeys) throws Exception {
         try {
             byte[] cipherBytes = Base64.getUrlDecoder().decode(token);
 
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.DECRYPT_MODE, privateKey);
-            byte[] decryptedBytes = cipher.doFinal(cipherBytes);
-            
-            String decryptedPayload = new String(decryptedBytes, StandardCharsets.UTF_8);
+            for (int i = 0; i < privateKeys.size(); i++) {
+                boolean lastKey = i == privateKeys.size() - 1;
+                byte[] decryptedBytes;
+                try {
+                    Cipher cipher = RSA_CIPHERS.get(Cipher.DECRYPT_MODE, privateKeys.get(i));
+                    decryptedBytes = cipher.doFinal(cipherBytes);
+                } catch (javax.crypto.BadPaddingException e) {
+                    // Not this key — try the next one
+                    RSA_CIPHERS.reset();
+                    continue;
+                } catch (Exception e) {
+                    RSA_CIPHERS.reset();
+                    throw e;
+                }
 
-            String[] parts = decryptedPayload.split("\\|", 2);
-            if (parts.length != 2) {
-                throw new SecurityException("Security Alert: Unauthorized transfer format.");
+                String[] payload = parsePayload(new String(decryptedBytes, StandardCharsets.UTF_8));
+                if (payload == null) {
+                    if (lastKey) {
+                        throw new SecurityException("Security Alert: Unauthorized transfer format.");
+                    }
+                    // Padding passed by chance — try the next one
+                    continue;
+                }
+                checkFreshness(Long.parseLong(payload[1]));
+                return payload[0];
             }
+            throw new javax.crypto.BadPaddingException("No matching key");
 
-            String userId = parts[0];
-            long tokenCreationTime = Long.parseLong(parts[1]);
-            long serverCurrentTime = System.currentTimeMillis();
-            long difference = serverCurrentTime - tokenCreationTime;
+        } catch (SecurityException e) {
+            // IMPORTANT: Catch our specific security messages first!
+            throw e; 
+        } catch (javax.crypto.BadPaddingException e) {
+            throw new SecurityException("Security Alert: Unauthorized or corrupted identity transfer.");
+        } catch (Exception e) {
+            // Only use this for unexpected system crashes
+            throw new SecurityException("Security Alert: Internal validation failure.");
+        }
+    }
 
-            // Math: 5 mins + 3 mins buffer = 8 mins total allowed age
-            if (difference > (VALIDITY_DURATION_MS + CLOCK_SKEW_BUFFER_MS)) {
-                throw new SecurityException("Security Alert: The transfer link has expired.");
+    // USER_ID and TIMESTAMP, or null unless the payload has exactly that shape
+    private static String[] parsePayload(String decryptedPayload) {
+        String[] parts = decryptedPayload.split("\\|", 2);
+        // Up to 18 digits always fits a long
+        if (parts.length != 2 || parts[1].isEmpty() || parts[1].length() > 18) {
+            return null;
+        }
+        for (int i = 0; i < parts[1].length(); i++) {
+            char c = parts[1].charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
             }
+        }
+        return parts;
+    }
+
+    private static void checkFreshness(long tokenCreationTime) {
+        long serverCurrentTime = System.currentTimeMillis();
+        long difference = serverCurrentTime - tokenCreationTime;
 
-            if (difference < -CLOCK_SKEW_BUFFER_MS) {
-                throw new SecurityException("Security Alert: Invalid link timestamp.");
+        // Math: 5 mins + 3 mins buffer = 8 mins total allowed age
+        if (difference > (VALIDITY_DURATION_MS + CLOCK_SKEW_BUFFER_MS)) {
+            throw new SecurityException("Security Alert: The transfer link has expired.");
+        }
+
+        if (difference < -CLOCK_SKEW_BUFFER_MS) {
+            throw new SecurityException("Security Alert: Invalid link timestamp.");
+        }
+    }
+
+    /**
+     * FUNCTION 3: ENVELOPE ENCRYPTION (v2 links)
+     * Packs cif, userId, transactionId and the timestamp into a single token so the
+     * web app pays for one RSA operation per link instead of three.
+     *
+     * Layout before URL-safe Base64:
+     * version(1) | kidLen(1) | kid | wrappedLen(2) | RSA-OAEP(dataKey) | nonce(12) | AES-GCM(payload)
+     * The header up to the nonce is bound to the ciphertext as GCM associated data.
+     * * @param identity The identity to seal
+     * @param keyId Id of the key pair, so the receiver can pick the right private key
+     * @param publicKey The Public Key for encryption
+     * @return URL-Safe Base64 String
+     */
+    public static String generateEnvelopeToken(LinkIdentity identity, String keyId, PublicKey publicKey)
+            throws Exception {
+        return generateEnvelopeToken(identity, keyId, publicKey, System.currentTimeMillis());
+    }
+
+    // Issued at an explicit time, for tests of the validity window
+    static String generateEnvelopeToken(LinkIdentity identity, String keyId, PublicKey publicKey, long issuedMs)
+            throws Exception {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream(128);
+        DataOutputStream pout = new DataOutputStream(plain);
+        pout.writeUTF(identity.getCif());
+        pout.writeUTF(identity.getUserId());
+        pout.writeUTF(identity.getTransactionId());
+        pout.writeLong(issuedMs);
+        pout.flush();
+
+        byte[] dataKey = new byte[DATA_KEY_SIZE];
+        byte[] nonce = new byte[GCM_NONCE_SIZE];
+        RNG.nextBytes(dataKey);
+        RNG.nextBytes(nonce);
+
+        byte[] wrappedKey;
+        Cipher wrap = WRAP_CIPHERS.get(Cipher.ENCRYPT_MODE, publicKey);
+        try {
+            wrappedKey = wrap.doFinal(dataKey);
+        } catch (Exception e) {
+            WRAP_CIPHERS.reset();
+            throw e;
+        }
+
+        byte[] kid = keyId.getBytes(StandardCharsets.UTF_8);
+        if (kid.length > 255) {
+            throw new IllegalArgumentException("Key id too long");
+        }
+        ByteArrayOutputStream header = new ByteArrayOutputStream(4 + kid.length + wrappedKey.length);
+        DataOutputStream hout = new DataOutputStream(header);
+        hout.writeByte(ENVELOPE_VERSION);
+        hout.writeByte(kid.length);
+        hout.write(kid);
+        hout.writeShort(wrappedKey.length);
+        hout.write(wrappedKey);
+        hout.flush();
+        byte[] aad = header.toByteArray();
+
+        Cipher gcm = GCM_CIPHERS.get();
+        gcm.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(dataKey, "AES"), new GCMParameterSpec(GCM_TAG_BITS, nonce));
+        gcm.updateAAD(aad);
+        byte[] sealed = gcm.doFinal(plain.toByteArray());
+
+        byte[] token = new byte[aad.length + nonce.length + sealed.length];
+        System.arraycopy(aad, 0, token, 0, aad.length);
+        System.arraycopy(nonce, 0, token, aad.length, nonce.length);
+        System.arraycopy(sealed, 0, token, aad.length + nonce.length, sealed.length);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token);
+    }
+
+    /**
+     * FUNCTION 4: ENVELOPE DECRYPTION & VALIDATION (v2 links)
+     * * @param token The v2 envelope from the URL
+     * @param keyLookup Resolves the embedded key id to a private key (null if unknown)
+     * @return The sealed identity if valid
+     * @throws SecurityException if expired, tampered, or the key id is unknown
+     */
+    public static LinkIdentity decryptAndValidateEnvelope(String token, Function<String, PrivateKey> keyLookup)
+            throws Exception {
+        try {
+            byte[] raw = Base64.getUrlDecoder().decode(token);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+
+            if (in.readByte() != ENVELOPE_VERSION) {
+                throw new SecurityException("Security Alert: Unauthorized transfer format.");
+            }
+            byte[] kid = new byte[in.readUnsignedByte()];
+            in.readFully(kid);
+            byte[] wrappedKey = new byte[in.readUnsignedShort()];
+            in.readFully(wrappedKey);
+            int aadLength = 4 + kid.length + wrappedKey.length;
+            byte[] nonce = new byte[GCM_NONCE_SIZE];
+            in.readFully(nonce);
+
+            PrivateKey privateKey = keyLookup.apply(new String(kid, StandardCharsets.UTF_8));
+            if (privateKey == null) {
+                throw new SecurityException("Security Alert: Unauthorized or corrupted identity transfer.");
+            }
+
+            byte[] dataKey;
+            Cipher unwrap = WRAP_CIPHERS.get(Cipher.DECRYPT_MODE, privateKey);
+            try {
+                dataKey = unwrap.doFinal(wrappedKey);
+            } catch (Exception e) {
+                WRAP_CIPHERS.reset();
+                throw e;
             }
 
-            return userId;
+            Cipher gcm = GCM_CIPHERS.get();
+            gcm.init(Cipher.DECRYPT_MODE, new SecretKeySpec(dataKey, "AES"),
+                    new GCMParameterSpec(GCM_TAG_BITS, nonce));
+            gcm.updateAAD(raw, 0, aadLength);
+            int offset = aadLength + GCM_NONCE_SIZE;
+            byte[] plain = gcm.doFinal(raw, offset, raw.length - offset);
+
+            DataInputStream pin = new DataInputStream(new ByteArrayInputStream(plain));
+            LinkIdentity identity = new LinkIdentity(pin.readUTF(), pin.readUTF(), pin.readUTF());
+            checkFreshness(pin.readLong());
+            return identity;
 
         } catch (SecurityException e) {
-            // IMPORTANT: Catch our specific security messages first!
-            throw e; 
-        } catch (javax.crypto.BadPaddingException e) {
+            throw e;
+        } catch (javax.crypto.BadPaddingException | javax.crypto.IllegalBlockSizeException e) {
+            // AEADBadTagException is a BadPaddingException; a tampered wrappedLen can
+            // also hand RSA more bytes than its modulus
             throw new SecurityException("Security Alert: Unauthorized or corrupted identity transfer.");
+        } catch (java.io.IOException | IllegalArgumentException e) {
+            throw new SecurityException("Security Alert: Unauthorized transfer format.");
         } catch (Exception e) {
-            // Only use this for unexpected system crashes
             throw new SecurityException("Security Alert: Internal validation failure.");
         }
     }
@@ -0,0 +1,139 @@
+package com.nbk;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Page split once into pre-encoded UTF-8 segments around {@code {{NAME}}}
+ * placeholders, so a render only escapes the per-request values and copies
+ * bytes into a single array of the exact final size.
+ *
+ * Placeholders are either constants, inlined verbatim when the template is
+ * compiled, or parameters, filled per render in the order they were declared
+ * and HTML-escaped (safe in text and in quoted attributes).
+ */
+public final class HtmlTemplate {
+
+    private static final byte[][] ENTITIES = new byte[128][];
+
+    static {
+        ENTITIES['&'] = "&amp;".getBytes(StandardCharsets.US_ASCII);
+        ENTITIES['<'] = "&lt;".getBytes(StandardCharsets.US_ASCII);
+        ENTITIES['>'] = "&gt;".getBytes(StandardCharsets.US_ASCII);
+        ENTITIES['"'] = "&quot;".getBytes(StandardCharsets.US_ASCII);
+        ENTITIES['\''] = "&#39;".getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // segments[i] precedes the value of parameter slots[i]; the last segment closes the page
+    private final byte[][] segments;
+    private final int[] slots;
+    private final int parameterCount;
+    private final int literalLength;
+
+    private HtmlTemplate(byte[][] segments, int[] slots, int parameterCount) {
+        this.segments = segments;
+        this.slots = slots;
+        this.parameterCount = parameterCount;
+        int length = 0;
+        for (byte[] segment : segments) {
+            length += segment.length;
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compiles {@code text}; every placeholder must be one of {@code constants}
+     * or {@code parameters}, else {@link IllegalArgumentException}.
+     */
+    public static HtmlTemplate compile(String text, Map<String, String> constants, String... parameters) {
+        List<String> names = Arrays.asList(parameters);
+        List<byte[]> segments = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        for (int open = text.indexOf("{{"); open >= 0; open = text.indexOf("{{", pos)) {
+            int close = text.indexOf("}}", open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unterminated placeholder at offset " + open);
+            }
+            String name = text.substring(open + 2, close);
+            literal.append(text, pos, open);
+            pos = close + 2;
+            if (constants.containsKey(name)) {
+                literal.append(constants.get(name));
+            } else if (names.contains(name)) {
+                segments.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+                slots.add(names.indexOf(name));
+                literal.setLength(0);
+            } else {
+                throw new IllegalArgumentException("Unknown placeholder {{" + name + "}}");
+            }
+        }
+        literal.append(text, pos, text.length());
+        segments.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+
+        int[] slotArray = new int[slots.size()];
+        for (int i = 0; i < slotArray.length; i++) {
+            slotArray[i] = slots.get(i);
+        }
+        return new HtmlTemplate(segments.toArray(new byte[0][]), slotArray, parameters.length);
+    }
+
+    /**
+     * The page with {@code values} (one per declared parameter, in order) escaped into place.
+     */
+    public byte[] render(String... values) {
+        if (values.length != parameterCount) {
+            throw new IllegalArgumentException("Expected " + parameterCount + " values, got " + values.length);
+        }
+        byte[][] escaped = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            escaped[i] = escape(values[i]);
+        }
+        int length = literalLength;
+        for (int slot : slots) {
+            length += escaped[slot].length;
+        }
+
+        byte[] page = new byte[length];
+        int offset = 0;
+        for (int i = 0; i < slots.length; i++) {
+            offset = put(segments[i], page, offset);
+            offset = put(escaped[slots[i]], page, offset);
+        }
+        put(segments[slots.length], page, offset);
+        return page;
+    }
+
+    private static int put(byte[] source, byte[] target, int offset) {
+        System.arraycopy(source, 0, target, offset, source.length);
+        return offset + source.length;
+    }
+
+    // UTF-8 with markup characters as entities; multi-byte sequences never contain ASCII
+    static byte[] escape(String value) {
+        byte[] raw = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        int extra = 0;
+        for (byte b : raw) {
+            if (b >= 0 && ENTITIES[b] != null) {
+                extra += ENTITIES[b].length - 1;
+            }
+        }
+        if (extra == 0) {
+            return raw;
+        }
+        byte[] escaped = new byte[raw.length + extra];
+        int offset = 0;
+        for (byte b : raw) {
+            if (b >= 0 && ENTITIES[b] != null) {
+                offset = put(ENTITIES[b], escaped, offset);
+            } else {
+                escaped[offset++] = b;
+            }
+        }
+        return escaped;
+    }
+}
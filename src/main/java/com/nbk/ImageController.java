@@ -1,232 +1,479 @@
 package com.nbk;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
-import java.net.URI;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.security.PrivateKey;
 import java.security.SecureRandom;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.annotation.PostConstruct;
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.imageio.ImageIO;
-import javax.net.ssl.SSLContext;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContextBuilder;
-import org.apache.http.util.EntityUtils;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.ImageType;
-import org.apache.pdfbox.rendering.PDFRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.context.request.async.DeferredResult;
 
 @RestController
 public class ImageController {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageController.class);
-    private static final Logger auditLogger = LoggerFactory.getLogger("AUDIT_LOGGER");
 
-    private static final long TOKEN_TTL_MS = 30_000L; // 30 seconds
     private static final int AES_KEY_SIZE = 16; // AES-128
     private static final int IV_SIZE = 16;
-
-    // Token store: token -> {encryptedBytes, iv, aesKey, expiryMs}
-    private final ConcurrentHashMap<String, TokenEntry> tokenStore = new ConcurrentHashMap<>();
-
-    private final CloseableHttpClient httpClient;
+    private static final MediaType HTML_UTF8 = new MediaType(MediaType.TEXT_HTML, StandardCharsets.UTF_8);
+
+    // Measures the window and reloads with its size (adaptive mode, first request)
+    private static final byte[] PROBE_PAGE = ("<!DOCTYPE html>\n" +
+            "<html lang=\"en\">\n" +
+            "<head>\n" +
+            "  <meta charset=\"UTF-8\">\n" +
+            "  <title>Document Viewer</title>\n" +
+            "  <style>html, body { width: 100%; height: 100%; margin: 0; background: #111; }</style>\n" +
+            "</head>\n" +
+            "<body>\n" +
+            "  <script>\n" +
+            "  (function() {\n" +
+            "    // Report the window in CSS pixels plus the device pixel ratio, then reload\n" +
+            "    var url = new URL(location.href);\n" +
+            "    url.searchParams.set('vw', Math.round(window.innerWidth || document.documentElement.clientWidth));\n" +
+            "    url.searchParams.set('vh', Math.round(window.innerHeight || document.documentElement.clientHeight));\n" +
+            "    url.searchParams.set('dpr', (window.devicePixelRatio || 1).toFixed(2));\n" +
+            "    location.replace(url.toString());\n" +
+            "  })();\n" +
+            "  </script>\n" +
+            "</body>\n" +
+            "</html>\n").getBytes(StandardCharsets.UTF_8);
+
+    // In-flight upstream fetch + render per document
+    private final SingleFlight<RenderKey, LoadedDocument> documentFlights = new SingleFlight<>();
+
+    private final EncryptionOfTime encryptionOfTime;
+    private final PdfPageRenderer pdfPageRenderer;
+    private final RenderedDocumentCache documentCache;
+    private final LaserficheClient laserficheClient;
+    private final ViewerExecutors viewerExecutors;
+    private final ImageEncoders imageEncoders;
+    private final TokenStore tokenStore;
+    private final AuditLog auditLog;
+    private final ViewerMetrics viewerMetrics;
+    private final ViewerPage viewerPage;
     private static final String[] IP_HEADERS = {
             "X-Forwarded-For", "HTTP_X_FORWARDED_FOR", "HTTP_CLIENT_IP", "HTTP_X_FORWARDED",
             "HTTP_X_CLUSTER_CLIENT_IP", "HTTP_FORWARDED_FOR", "HTTP_FORWARDED", "X-Real-IP", "x-real-ip"
     };
 
-    @Value("${app.laserfiche.url}")
-    private String laserficheUrl;
+    // Paged mode: one encrypted image per page, fetched and painted one by one
+    @Value("${app.viewer.paged:false}")
+    private boolean pagedViewer;
 
-    @Value("${app.laserfiche.auth-header}")
-    private String authHeader;
+    // Payload cipher: "cbc" (one blob) or "gcm" (independently sealed chunks)
+    @Value("${app.viewer.cipher:cbc}")
+    private String payloadCipher;
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    @Value("${app.viewer.chunk-size:65536}")
+    private int chunkSize;
 
-    // ─── Token Entry ────────────────────────────────────────────────────────────
+    // Page token lifetime: base, plus per earlier page, plus the time earlier pages
+    // take to download at the slowest link speed we still serve (0 = ignore size)
+    @Value("${app.viewer.token-ttl-ms:30000}")
+    private long tokenTtlMs;
 
-    private static class TokenEntry {
-        final byte[] encryptedBytes;
-        final byte[] iv;
-        final byte[] aesKey;
-        final long expiryMs;
+    @Value("${app.viewer.token-ttl-per-page-ms:2000}")
+    private long tokenTtlPerPageMs;
 
-        TokenEntry(byte[] encryptedBytes, byte[] iv, byte[] aesKey, long expiryMs) {
-            this.encryptedBytes = encryptedBytes;
-            this.iv = iv;
-            this.aesKey = aesKey;
-            this.expiryMs = expiryMs;
-        }
+    @Value("${app.viewer.token-min-bytes-per-second:65536}")
+    private long tokenMinBytesPerSecond;
 
-        boolean isExpired() {
-            return System.currentTimeMillis() > expiryMs;
-        }
-    }
+    // Adaptive resolution: the viewer reports its viewport first, pages are sized to fill it
+    @Value("${app.render.adaptive.enabled:false}")
+    private boolean adaptiveRender;
+
+    // Stage timings on the viewer page response; off by default, they describe the backend
+    @Value("${app.viewer.server-timing:false}")
+    private boolean serverTiming;
 
     // ─── Constructor ───────────────────────────────────────────────────────────
 
-    public ImageController() {
-        try {
-            SSLContext sslContext = new SSLContextBuilder()
-                    .loadTrustMaterial(null, (certificate, authType) -> true)
-                    .build();
+    public ImageController(EncryptionOfTime encryptionOfTime, PdfPageRenderer pdfPageRenderer,
+            RenderedDocumentCache documentCache, LaserficheClient laserficheClient,
+            ViewerExecutors viewerExecutors, TokenStore tokenStore, ImageEncoders imageEncoders,
+            AuditLog auditLog, ViewerMetrics viewerMetrics, ViewerPage viewerPage) {
+        this.encryptionOfTime = encryptionOfTime;
+        this.pdfPageRenderer = pdfPageRenderer;
+        this.documentCache = documentCache;
+        this.laserficheClient = laserficheClient;
+        this.viewerExecutors = viewerExecutors;
+        this.tokenStore = tokenStore;
+        this.imageEncoders = imageEncoders;
+        this.auditLog = auditLog;
+        this.viewerMetrics = viewerMetrics;
+        this.viewerPage = viewerPage;
+        viewerMetrics.monitor(documentFlights, "document");
+    }
 
-            this.httpClient = HttpClients.custom()
-                    .setSSLContext(sslContext)
-                    .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
-                    .build();
+    @PostConstruct
+    public void init() {
+        // Fail at startup rather than on every GCM view
+        ChunkedAesGcm.checkChunkSize(chunkSize);
 
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to create HttpClient", e);
+        // Register ImageIO plugins from the application class path (the bundled TIFF reader)
+        ImageIO.scanForPlugins();
+        if (!ImageIO.getImageReadersByFormatName("tiff").hasNext()) {
+            logger.warn("No ImageIO TIFF reader available; TIFF documents will fail");
         }
     }
 
     // ─── Endpoint 1: Serve the secure canvas page ─────────────────────────────
 
     @GetMapping(value = "/", produces = MediaType.TEXT_HTML_VALUE)
-    public ResponseEntity<String> getImage(
-            @RequestParam(name = "id") String encryptedToken,
-            @RequestParam(name = "transactionId") String encTransactionId,
-            @RequestParam(name = "userId") String encUserId,
-            HttpServletRequest request) {
+    public DeferredResult<ResponseEntity<byte[]>> getImage(
+            @RequestParam(name = "t", required = false) String envelope,
+            @RequestParam(name = "id", required = false) String encryptedToken,
+            @RequestParam(name = "transactionId", required = false) String encTransactionId,
+            @RequestParam(name = "userId", required = false) String encUserId,
+            @RequestParam(name = "vw", required = false) Integer viewportWidth,
+            @RequestParam(name = "vh", required = false) Integer viewportHeight,
+            @RequestParam(name = "dpr", required = false) Double devicePixelRatio,
+            HttpServletRequest request) throws MissingServletRequestParameterException {
+
+        // v2 links carry a single envelope; legacy links need all three parameters
+        if (envelope == null) {
+            if (encryptedToken == null) {
+                throw new MissingServletRequestParameterException("id", "String");
+            }
+            if (encTransactionId == null) {
+                throw new MissingServletRequestParameterException("transactionId", "String");
+            }
+            if (encUserId == null) {
+                throw new MissingServletRequestParameterException("userId", "String");
+            }
+        }
 
         String clientIp = getClientIp(request);
-        String decryptedCif = null;
-        String decryptedUserId = null;
-        String decryptedTransId = null;
-        boolean isSuccess = false;
-
+        // Explicit in sync mode too: a view joining another request's load parks
+        // here, and the container default would answer it long before the leader
+        DeferredResult<ResponseEntity<byte[]>> result = new DeferredResult<>(viewerExecutors.getTimeoutMs());
+        result.onTimeout(() -> result.setResult(errorResponse(HttpStatus.SERVICE_UNAVAILABLE,
+                "The document service is busy, please retry.")));
+
+        ViewTimings timings = viewerMetrics.start();
+        LinkIdentity identity = null;
         try {
-            PrivateKey privateKey = KeyLoader.loadPrivateKey();
-
             // 1. Decrypt & Validate params
-            decryptedCif = EncryptionOfTime.decryptAndValidate(encryptedToken, privateKey);
-            decryptedUserId = EncryptionOfTime.decryptAndValidate(encUserId, privateKey);
-            decryptedTransId = EncryptionOfTime.decryptAndValidate(encTransactionId, privateKey);
-
-            // 2. Call upstream (Laserfiche)
-            String jsonBody = "{\"CaseID\": \"8732\", \"RequestID\": \"\", \"DocumentType\": \"national id\"}";
-            HttpGetWithEntity req = new HttpGetWithEntity(laserficheUrl);
-            req.setEntity(new StringEntity(jsonBody, StandardCharsets.UTF_8));
-            req.setHeader("Authorization", authHeader);
-            req.setHeader("Content-Type", "application/json");
-
-            try (CloseableHttpResponse response = httpClient.execute(req)) {
-                int statusCode = response.getStatusLine().getStatusCode();
-                if (statusCode != 200) {
-                    throw new RuntimeException("Upstream failure: " + statusCode);
-                }
+            long validateStart = System.nanoTime();
+            if (envelope != null) {
+                identity = encryptionOfTime.validateEnvelope(envelope);
+            } else {
+                identity = new LinkIdentity(
+                        encryptionOfTime.validateToken(encryptedToken),
+                        encryptionOfTime.validateToken(encUserId),
+                        encryptionOfTime.validateToken(encTransactionId));
+            }
+            timings.record("validate", System.nanoTime() - validateStart);
 
-                // 3. PDF → PNG bytes
-                byte[] pdfBytes = extractAndDecodePdf(
-                        EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
-                byte[] imageBytes = convertPdfToImage(pdfBytes);
-
-                // 4. Generate AES-128 key + IV, encrypt image
-                SecureRandom rng = new SecureRandom();
-                byte[] aesKey = new byte[AES_KEY_SIZE];
-                byte[] iv = new byte[IV_SIZE];
-                rng.nextBytes(aesKey);
-                rng.nextBytes(iv);
-
-                byte[] encrypted = encryptAes(imageBytes, aesKey, iv);
-
-                // 5. Store one-time token (expires in 30 s)
-                String otp = UUID.randomUUID().toString();
-                tokenStore.put(otp, new TokenEntry(encrypted, iv, aesKey, System.currentTimeMillis() + TOKEN_TTL_MS));
-
-                // 6. Build key bundle for JS: base64(iv + key) — JS will split them
-                String ivB64 = Base64.getEncoder().encodeToString(iv);
-                String keyB64 = Base64.getEncoder().encodeToString(aesKey);
-
-                isSuccess = true;
-
-                // Purge any stale tokens opportunistically
-                purgeExpiredTokens();
-
-                return ResponseEntity.ok()
-                        .header("Cache-Control", "no-store, no-cache, must-revalidate, max-age=0")
-                        .header("Pragma", "no-cache")
-                        .header("X-Content-Type-Options", "nosniff")
-                        .header("X-Frame-Options", "DENY")
-                        .header("Content-Security-Policy",
-                                "default-src 'self'; script-src 'unsafe-inline'; img-src 'none'; connect-src 'self'; style-src 'unsafe-inline';")
-                        .body(buildSecureHtml(otp, ivB64, keyB64));
+            // Adaptive mode: a first, content-free page measures the window and
+            // reloads with its size; that request renders and is audited
+            if (adaptiveRender && viewportWidth == null) {
+                result.setResult(viewportProbeResponse());
+                return result;
             }
 
+            // 2. Rendered document: cache, else upstream (Laserfiche) + render.
+            //    In async mode this hands off to the stage executors and frees the servlet thread.
+            DocumentKey documentKey = new DocumentKey("8732", "", "national id");
+            Viewport viewport = adaptiveRender ? toViewport(viewportWidth, viewportHeight, devicePixelRatio) : null;
+            final LinkIdentity viewer = identity;
+            long loadStart = System.nanoTime();
+            loadDocument(new RenderKey(documentKey, viewport), timings)
+                    .thenApply(document -> {
+                        timings.record("load", System.nanoTime() - loadStart);
+                        return buildViewerResponse(document, timings);
+                    })
+                    .whenComplete((response, ex) -> {
+                        if (ex != null) {
+                            response = failureResponse(ex);
+                        }
+                        boolean delivered = result.setResult(withServerTiming(response, timings));
+                        audit(clientIp, viewer, delivered && response.getStatusCode() == HttpStatus.OK, timings);
+                    });
+
         } catch (Exception ex) {
-            logger.error("Error in getImage: {}", ex.getMessage());
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            result.setResult(withServerTiming(failureResponse(ex), timings));
+            audit(clientIp, identity, false, timings);
+        }
+        return result;
+    }
+
+    private ResponseEntity<byte[]> buildViewerResponse(RenderedDocument document, ViewTimings timings) {
+        try {
+            List<byte[]> pages = document.getPages();
+
+            // 3. Generate AES-128 key, encrypt every page under its own IV / base nonce
+            boolean gcm = isGcm();
+            SecureRandom rng = new SecureRandom();
+            byte[] aesKey = new byte[AES_KEY_SIZE];
+            rng.nextBytes(aesKey);
+
+            // 4. Store one-time token per page; later pages get longer, since the
+            //    viewer only asks for a page once the ones before it have arrived
+            String otp = UUID.randomUUID().toString();
+            long issuedMs = System.currentTimeMillis();
+            long bytesBefore = 0;
+            long encryptNanos = 0;
+            long storeNanos = 0;
+            for (int page = 0; page < pages.size(); page++) {
+                byte[] pageIv = new byte[gcm ? ChunkedAesGcm.NONCE_BYTES : IV_SIZE];
+                rng.nextBytes(pageIv);
+                byte[] plain = pages.get(page);
+                long start = System.nanoTime();
+                byte[] sealed = gcm
+                        ? ChunkedAesGcm.encrypt(plain, aesKey, pageIv, chunkSize)
+                        : encryptAes(plain, aesKey, pageIv);
+                byte[] prefix = gcm ? ChunkedAesGcm.header(pageIv, chunkSize, plain.length) : pageIv;
+                long encrypted = System.nanoTime();
+                tokenStore.put(tokenKey(otp, page), sealed, prefix, pageExpiryMs(issuedMs, page, bytesBefore));
+                bytesBefore += prefix.length + sealed.length;
+                encryptNanos += encrypted - start;
+                storeNanos += System.nanoTime() - encrypted;
+            }
+            timings.record("encrypt", encryptNanos);
+            timings.record("store", storeNanos);
+
+            // 5. Key for JS; every payload carries its own IV or segment header
+            String keyB64 = Base64.getEncoder().encodeToString(aesKey);
+
+            // Per-request page: no ETag, never stored
+            return ResponseEntity.ok()
+                    .contentType(HTML_UTF8)
                     .header("Cache-Control", "no-store, no-cache, must-revalidate, max-age=0")
                     .header("Pragma", "no-cache")
-                    .body("<html><body>Error: " + escapeHtml(ex.getMessage()) + "</body></html>");
+                    .header("X-Content-Type-Options", "nosniff")
+                    .header("X-Frame-Options", "DENY")
+                    .header("Content-Security-Policy", viewerPage.getContentSecurityPolicy())
+                    .body(viewerPage.render(otp, keyB64, pages.size(), gcm ? "AES-GCM" : "AES-CBC",
+                            document.getMimeType()));
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
 
-        } finally {
-            auditLogger.info(
-                    "{} | ip={} | user={} | transId={} | cif={} | status={}",
-                    Instant.now(), clientIp,
-                    decryptedUserId != null ? decryptedUserId : "UNAUTHORIZED",
-                    decryptedTransId != null ? decryptedTransId : "UNKNOWN",
-                    decryptedCif != null ? decryptedCif : "UNAUTHORIZED",
-                    isSuccess ? "SUCCESS" : "FAILED");
+    private ResponseEntity<byte[]> failureResponse(Throwable ex) {
+        if (ex instanceof CompletionException && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        if (ex instanceof RejectedExecutionException) {
+            logger.warn("Viewer pipeline saturated, rejecting request");
+            return errorResponse(HttpStatus.SERVICE_UNAVAILABLE, "The document service is busy, please retry.");
+        }
+        if (ex instanceof EmptyDocumentException) {
+            logger.warn("Rejecting empty document: {}", ex.getMessage());
+            return errorResponse(HttpStatus.UNPROCESSABLE_ENTITY, "The document has no pages.");
+        }
+        if (ex instanceof DocumentTooLargeException) {
+            logger.warn("Rejecting oversized document: {}", ex.getMessage());
+            return errorResponse(HttpStatus.UNPROCESSABLE_ENTITY, "The document is too large to display.");
+        }
+        logger.error("Error in getImage: {}", ex.getMessage());
+        return errorResponse(HttpStatus.INTERNAL_SERVER_ERROR, ex.getMessage());
+    }
+
+    private ResponseEntity<byte[]> errorResponse(HttpStatus status, String message) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(status)
+                .contentType(HTML_UTF8)
+                .header("Cache-Control", "no-store, no-cache, must-revalidate, max-age=0")
+                .header("Pragma", "no-cache");
+        if (status == HttpStatus.SERVICE_UNAVAILABLE) {
+            builder.header("Retry-After", "5");
+        }
+        return builder.body(("<html><body>Error: " + escapeHtml(message) + "</body></html>")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ResponseEntity<byte[]> withServerTiming(ResponseEntity<byte[]> response, ViewTimings timings) {
+        if (!serverTiming) {
+            return response;
+        }
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .header("Server-Timing", ViewerMetrics.serverTiming(timings))
+                .body(response.getBody());
+    }
+
+    private void audit(String clientIp, LinkIdentity identity, boolean isSuccess, ViewTimings timings) {
+        viewerMetrics.recordView(timings, isSuccess);
+        auditLog.record(new AuditRecord(System.currentTimeMillis(), clientIp, identity, isSuccess,
+                timings.stages(), timings.elapsedNanos()));
+    }
+
+    // ─── Upstream fetch + render ───────────────────────────────────────────────
+
+    // A shared load's document and the stages it ran, for every view that joined it
+    private static final class LoadedDocument {
+        final RenderedDocument document;
+        final Map<String, Long> stages;
+
+        LoadedDocument(RenderedDocument document, Map<String, Long> stages) {
+            this.document = document;
+            this.stages = stages;
+        }
+    }
+
+    private CompletableFuture<RenderedDocument> loadDocument(RenderKey renderKey, ViewTimings timings) {
+        RenderedDocument cached = documentCache.get(renderKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        // Concurrent viewers of the same document share one fetch and render;
+        // each still gets its own key and token in buildViewerResponse. The load
+        // keeps its own timings, fed to the stage timers once, and every view
+        // then reports its stages as its own
+        return documentFlights.execute(renderKey, () -> {
+            ViewTimings load = viewerMetrics.start();
+            return CompletableFuture
+                    .supplyAsync(() -> fetch(renderKey.getDocument(), load), viewerExecutors.upstream())
+                    .thenApplyAsync(upstream -> render(renderKey, upstream, load), viewerExecutors.render())
+                    .thenApply(document -> {
+                        documentCache.put(renderKey, document);
+                        return new LoadedDocument(document, load.stages());
+                    });
+        }).thenApply(loaded -> {
+            timings.merge(loaded.stages);
+            return loaded.document;
+        });
+    }
+
+    private UpstreamDocument fetch(DocumentKey documentKey, ViewTimings timings) {
+        try {
+            return laserficheClient.fetchDocument(documentKey, timings);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private RenderedDocument render(RenderKey renderKey, UpstreamDocument upstream, ViewTimings timings) {
+        try {
+            byte[] bytes = upstream.getBytes();
+            DocumentFormat format = DocumentFormat.sniff(bytes);
+            logger.debug("Upstream document {} is {}", upstream.getEntryId(), format);
+
+            // Browsers decode these themselves: serve the upstream bytes untouched
+            if (format == DocumentFormat.JPEG || format == DocumentFormat.PNG) {
+                return new RenderedDocument(upstream.getEntryId(), Collections.singletonList(bytes),
+                        format.getMimeType());
+            }
+
+            // PDF / TIFF → image bytes (one stitched image, or one image per page),
+            // encoded as configured for the document type
+            ImageEncoder encoder = timed(imageEncoders.forDocumentType(renderKey.getDocument().getDocumentType()),
+                    timings);
+            Viewport viewport = renderKey.getViewport();
+            long renderStart = System.nanoTime();
+            List<byte[]> pages;
+            switch (format) {
+                case PDF:
+                    pages = pagedViewer
+                            ? convertPdfToPages(bytes, viewport, encoder)
+                            : Collections.singletonList(convertPdfToImage(bytes, viewport, encoder));
+                    break;
+                case TIFF:
+                    pages = convertTiff(bytes, encoder);
+                    break;
+                default:
+                    throw new IOException("Unsupported document format");
+            }
+            timings.record("render", System.nanoTime() - renderStart);
+            return new RenderedDocument(upstream.getEntryId(), pages, encoder.getMimeType());
+        } catch (Exception e) {
+            throw new CompletionException(e);
         }
     }
 
     // ─── Endpoint 2: Serve AES-encrypted image bytes (one-time) ───────────────
 
     @GetMapping(value = "/api/image/data", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
-    public ResponseEntity<byte[]> getEncryptedImageData(
-            @RequestParam(name = "token") String token) {
+    public void getEncryptedImageData(
+            @RequestParam(name = "token") String token,
+            @RequestParam(name = "page", defaultValue = "0") int page,
+            HttpServletResponse response) throws IOException {
 
-        TokenEntry entry = tokenStore.remove(token); // consume immediately — single use
+        TokenEntry entry = tokenStore.take(tokenKey(token, page)); // consume immediately — single use
 
-        if (entry == null || entry.isExpired()) {
+        // An evicted payload fails the same way as an expired token
+        if (entry == null || !entry.getPayload().acquire()) {
+            if (entry != null) {
+                entry.getPayload().release();
+            }
             logger.warn("Invalid or expired token requested: {}", token);
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return;
         }
 
-        // Prepend IV to the ciphertext so the client can split them
-        byte[] payload = new byte[IV_SIZE + entry.encryptedBytes.length];
-        System.arraycopy(entry.iv, 0, payload, 0, IV_SIZE);
-        System.arraycopy(entry.encryptedBytes, 0, payload, IV_SIZE, entry.encryptedBytes.length);
+        try {
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            response.setHeader("Cache-Control", "no-store, no-cache, must-revalidate, max-age=0");
+            response.setHeader("Pragma", "no-cache");
+            response.setHeader("X-Content-Type-Options", "nosniff");
+            response.setHeader("Content-Disposition", "inline");
+            // Known length: no chunked encoding, and no buffering to work it out
+            response.setContentLength(entry.getPrefix().length + entry.getPayload().length());
+
+            // IV or segment header first, then the ciphertext straight from the store
+            OutputStream out = response.getOutputStream();
+            out.write(entry.getPrefix());
+            entry.getPayload().writeTo(out);
+        } finally {
+            entry.getPayload().release();
+            Arrays.fill(entry.getPrefix(), (byte) 0);
+        }
+    }
 
+    // ─── Endpoint 3: Viewer script (external-script mode) ─────────────────────
+
+    // Versioned by content hash, so it can be cached for good; 304 on a matching If-None-Match
+    @GetMapping(value = ViewerPage.SCRIPT_PATH)
+    public ResponseEntity<byte[]> getViewerScript() {
+        if (!viewerPage.isExternalScript()) {
+            return ResponseEntity.notFound().build();
+        }
         return ResponseEntity.ok()
-                .header("Cache-Control", "no-store, no-cache, must-revalidate, max-age=0")
-                .header("Pragma", "no-cache")
+                .contentType(new MediaType("application", "javascript", StandardCharsets.UTF_8))
+                .eTag(viewerPage.getScriptVersion())
+                .header("Cache-Control", "public, max-age=31536000, immutable")
                 .header("X-Content-Type-Options", "nosniff")
-                .header("Content-Disposition", "inline")
-                .body(payload);
+                .body(viewerPage.getScript());
     }
 
     // ─── AES-128-CBC encrypt ───────────────────────────────────────────────────
 
-    private byte[] encryptAes(byte[] data, byte[] key, byte[] iv) throws Exception {
+    static byte[] encryptAes(byte[] data, byte[] key, byte[] iv) throws Exception {
         SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
         IvParameterSpec ivSpec = new IvParameterSpec(iv);
         Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
@@ -234,174 +481,52 @@ public class ImageController {
         return cipher.doFinal(data);
     }
 
-    // ─── HTML builder ─────────────────────────────────────────────────────────
-
-    private String buildSecureHtml(String otp, String ivB64, String keyB64) {
-        return "<!DOCTYPE html>\n" +
-                "<html lang=\"en\">\n" +
-                "<head>\n" +
-                "  <meta charset=\"UTF-8\">\n" +
-                "  <meta http-equiv=\"Cache-Control\" content=\"no-store, no-cache, must-revalidate\">\n" +
-                "  <meta http-equiv=\"Pragma\" content=\"no-cache\">\n" +
-                "  <title>Document Viewer</title>\n" +
-                "  <style>\n" +
-                "    *, *::before, *::after { box-sizing: border-box; margin: 0; padding: 0; }\n" +
-                "    html, body {\n" +
-                "      width: 100%; height: 100%;\n" +
-                "      background: #111;\n" +
-                "      display: flex;\n" +
-                "      align-items: center;\n" +
-                "      justify-content: center;\n" +
-                "      overflow: auto;\n" +
-                "      user-select: none;\n" +
-                "      -webkit-user-select: none;\n" +
-                "      -moz-user-select: none;\n" +
-                "    }\n" +
-                "    #c {\n" +
-                "      max-width: 95vw;\n" +
-                "      max-height: 95vh;\n" +
-                "      display: block;\n" +
-                "      box-shadow: 0 0 40px rgba(0,0,0,0.8);\n" +
-                "      border-radius: 4px;\n" +
-                "    }\n" +
-                "    #overlay {\n" +
-                "      position: fixed; inset: 0;\n" +
-                "      z-index: 999;\n" +
-                "      background: transparent;\n" +
-                "      pointer-events: none;\n" +
-                "    }\n" +
-                "    #status {\n" +
-                "      color: #aaa;\n" +
-                "      font-family: sans-serif;\n" +
-                "      font-size: 14px;\n" +
-                "    }\n" +
-                "    @media print { body { visibility: hidden !important; } }\n" +
-                "  </style>\n" +
-                "</head>\n" +
-                "<body oncontextmenu=\"return false\" ondragstart=\"return false\" onselectstart=\"return false\">\n" +
-                "  <div id=\"overlay\"></div>\n" +
-                "  <canvas id=\"c\"></canvas>\n" +
-                "  <p id=\"status\">Loading secure document…</p>\n" +
-                "\n" +
-                "  <script>\n" +
-                "  (function() {\n" +
-                // ── Security hardening ──────────────────────────────────────────────
-                "    'use strict';\n" +
-                "\n" +
-                "    // Block key shortcuts\n" +
-                "    document.addEventListener('keydown', function(e) {\n" +
-                "      var blocked =\n" +
-                "        e.key === 'F12' ||\n" +
-                "        e.key === 'PrintScreen' ||\n" +
-                "        (e.ctrlKey && ['s','p','u','a','c','x'].indexOf(e.key.toLowerCase()) !== -1) ||\n" +
-                "        (e.ctrlKey && e.shiftKey && ['i','j','c'].indexOf(e.key.toLowerCase()) !== -1) ||\n" +
-                "        (e.metaKey && ['s','p','u'].indexOf(e.key.toLowerCase()) !== -1);\n" +
-                "      if (blocked) { e.preventDefault(); e.stopPropagation(); }\n" +
-                "    }, true);\n" +
-                "\n" +
-                "    // Block right-click everywhere\n" +
-                "    document.addEventListener('contextmenu', function(e) { e.preventDefault(); }, true);\n" +
-                "\n" +
-                "    // Aggressive Anti-DevTools heuristics\n" +
-                "    var _w = window.outerWidth, _h = window.outerHeight;\n" +
-                "    function destroyContent() {\n" +
-                "      document.body.innerHTML = '<h1 style=\"color:red; text-align:center; margin-top:50px; font-family:sans-serif;\">Security Violation: Inspection Detected</h1>';\n"
-                +
-                "      if (window.stop) window.stop();\n" +
-                "    }\n" +
-                "\n" +
-                "    // 1. Check for window resizing (docked devtools)\n" +
-                "    setInterval(function() {\n" +
-                "      if (Math.abs(window.outerWidth - _w) > 160 || Math.abs(window.outerHeight - _h) > 160) {\n" +
-                "        destroyContent();\n" +
-                "      }\n" +
-                "    }, 500);\n" +
-                "\n" +
-                // ── Crypto constants injected by server ─────────────────────────────
-                "    var OTP    = '" + escapeJs(otp) + "';\n" +
-                "    var IV_B64 = '" + escapeJs(ivB64) + "';\n" +
-                "    var KEY_B64= '" + escapeJs(keyB64) + "';\n" +
-                "\n" +
-                // ── Helpers ─────────────────────────────────────────────────────────
-                "    function b64ToArr(b64) {\n" +
-                "      var bin = atob(b64), arr = new Uint8Array(bin.length);\n" +
-                "      for (var i = 0; i < bin.length; i++) arr[i] = bin.charCodeAt(i);\n" +
-                "      return arr;\n" +
-                "    }\n" +
-                "\n" +
-                // ── Main: fetch → decrypt → paint ───────────────────────────────────
-                "    async function loadImage() {\n" +
-                "      var status = document.getElementById('status');\n" +
-                "      try {\n" +
-                "        var resp = await fetch('/api/image/data?token=' + encodeURIComponent(OTP), {\n" +
-                "          credentials: 'same-origin',\n" +
-                "          cache: 'no-store'\n" +
-                "        });\n" +
-                "        if (!resp.ok) throw new Error('Access denied (' + resp.status + ')');\n" +
-                "\n" +
-                "        var payload = new Uint8Array(await resp.arrayBuffer());\n" +
-                "\n" +
-                "        // Extract IV (first 16 bytes) and ciphertext (rest)\n" +
-                "        var iv  = payload.slice(0, 16);\n" +
-                "        var enc = payload.slice(16);\n" +
-                "\n" +
-                "        // Import AES-CBC key\n" +
-                "        var rawKey = b64ToArr(KEY_B64);\n" +
-                "        var cryptoKey = await crypto.subtle.importKey(\n" +
-                "          'raw', rawKey, { name: 'AES-CBC' }, false, ['decrypt']\n" +
-                "        );\n" +
-                "\n" +
-                "        // Decrypt\n" +
-                "        var decrypted = await crypto.subtle.decrypt(\n" +
-                "          { name: 'AES-CBC', iv: iv }, cryptoKey, enc\n" +
-                "        );\n" +
-                "\n" +
-                "        // Wipe key references from memory (best-effort)\n" +
-                "        rawKey.fill(0);\n" +
-                "        KEY_B64 = null;\n" +
-                "        IV_B64  = null;\n" +
-                "        OTP     = null;\n" +
-                "\n" +
-                "        // Paint to canvas\n" +
-                "        var blob = new Blob([decrypted], { type: 'image/png' });\n" +
-                "        var bitmap = await createImageBitmap(blob);\n" +
-                "        var canvas = document.getElementById('c');\n" +
-                "        canvas.width  = bitmap.width;\n" +
-                "        canvas.height = bitmap.height;\n" +
-                "        var ctx = canvas.getContext('2d');\n" +
-                "        ctx.drawImage(bitmap, 0, 0);\n" +
-                "        bitmap.close();\n" +
-                "\n" +
-                "        // Remove status message\n" +
-                "        status.remove();\n" +
-                "\n" +
-                "        // Prevent canvas right-click save\n" +
-                "        canvas.addEventListener('contextmenu', function(e) { e.preventDefault(); }, true);\n" +
-                "\n" +
-                "        // Protect the pixel data — override toDataURL and toBlob\n" +
-                "        canvas.toDataURL = function() { return ''; };\n" +
-                "        canvas.toBlob    = function() {};\n" +
-                "\n" +
-                "      } catch (err) {\n" +
-                "        status.textContent = 'Unable to load document: ' + err.message;\n" +
-                "      }\n" +
-                "    }\n" +
-                "\n" +
-                "    loadImage();\n" +
-                "  })();\n" +
-                "  </script>\n" +
-                "</body>\n" +
-                "</html>\n";
+    private ResponseEntity<byte[]> viewportProbeResponse() {
+        return ResponseEntity.ok()
+                .contentType(HTML_UTF8)
+                .header("Cache-Control", "no-store, no-cache, must-revalidate, max-age=0")
+                .header("Pragma", "no-cache")
+                .header("X-Content-Type-Options", "nosniff")
+                .header("X-Frame-Options", "DENY")
+                .header("Content-Security-Policy",
+                        "default-src 'none'; script-src 'unsafe-inline'; style-src 'unsafe-inline';")
+                .body(PROBE_PAGE);
     }
 
     // ─── Helpers ───────────────────────────────────────────────────────────────
 
-    private void purgeExpiredTokens() {
-        tokenStore.entrySet().removeIf(e -> e.getValue().isExpired());
+    /**
+     * Device-pixel area the viewer's canvas can show: 95% of the window (see the
+     * page CSS). {@code null} — the configured DPI — for missing or silly sizes.
+     */
+    private Viewport toViewport(Integer cssWidth, Integer cssHeight, Double devicePixelRatio) {
+        if (cssWidth == null || cssHeight == null || cssWidth <= 0 || cssHeight <= 0) {
+            return null;
+        }
+        double ratio = devicePixelRatio != null && devicePixelRatio > 0
+                ? Math.max(0.5, Math.min(4.0, devicePixelRatio))
+                : 1.0;
+        int width = (int) Math.ceil(cssWidth * ratio * 0.95);
+        int height = (int) Math.ceil(cssHeight * ratio * 0.95);
+        return pagedViewer ? Viewport.column(width) : Viewport.row(width, height);
+    }
+
+    /**
+     * Expiry of page {@code page}'s token, issued at {@code issuedMs} after
+     * {@code bytesBefore} bytes of earlier pages. Still a fixed deadline: a
+     * viewer stalled for longer than the allowance gets 403 on the rest.
+     */
+    long pageExpiryMs(long issuedMs, int page, long bytesBefore) {
+        long transferMs = tokenMinBytesPerSecond > 0 ? bytesBefore * 1000 / tokenMinBytesPerSecond : 0;
+        return issuedMs + tokenTtlMs + page * tokenTtlPerPageMs + transferMs;
+    }
+
+    private boolean isGcm() {
+        return "gcm".equalsIgnoreCase(payloadCipher);
     }
 
-    private String escapeJs(String s) {
-        return s.replace("\\", "\\\\").replace("'", "\\'").replace("\n", "\\n").replace("\r", "");
+    private static String tokenKey(String otp, int page) {
+        return otp + ":" + page;
     }
 
     private String escapeHtml(String s) {
@@ -410,70 +535,116 @@ public class ImageController {
         return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
     }
 
-    private byte[] convertPdfToImage(byte[] data) throws Exception {
-        try (PDDocument document = PDDocument.load(data)) {
-            int pageCount = document.getNumberOfPages();
-            PDFRenderer renderer = new PDFRenderer(document);
+    private byte[] convertPdfToImage(byte[] data, Viewport viewport, ImageEncoder encoder) throws Exception {
+        return pdfPageRenderer.renderStitched(data, viewport, encoder::encode);
+    }
 
-            BufferedImage[] images = new BufferedImage[pageCount];
-            int totalWidth = 0;
-            int maxHeight = 0;
+    private List<byte[]> convertPdfToPages(byte[] data, Viewport viewport, ImageEncoder encoder) throws Exception {
+        return pdfPageRenderer.renderPages(data, viewport, (pageIndex, image) -> encoder.encode(image));
+    }
 
-            for (int i = 0; i < pageCount; i++) {
-                images[i] = renderer.renderImageWithDPI(i, 150, ImageType.RGB);
-                totalWidth += images[i].getWidth();
-                maxHeight = Math.max(maxHeight, images[i].getHeight());
+    // Multi-page TIFF scans: every frame re-encoded, as browsers cannot show TIFF.
+    // Frames are subsampled to app.render.max-pixels and decoded under the render
+    // memory budget, sized from the frame headers before any pixel is read.
+    private List<byte[]> convertTiff(byte[] data, ImageEncoder encoder) throws Exception {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No ImageIO reader for TIFF (is imageio-tiff on the class path?)");
             }
-
-            BufferedImage combined = new BufferedImage(totalWidth, maxHeight, BufferedImage.TYPE_INT_RGB);
-            java.awt.Graphics2D g = combined.createGraphics();
-            g.setBackground(java.awt.Color.BLACK);
-            g.clearRect(0, 0, totalWidth, maxHeight);
-
-            int currentX = 0;
-            for (BufferedImage img : images) {
-                g.drawImage(img, currentX, 0, null);
-                currentX += img.getWidth();
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, false, true);
+                int count = reader.getNumImages(true);
+                if (count == 0) {
+                    throw new EmptyDocumentException("TIFF has no frames");
+                }
+                int[] steps = new int[count];
+                for (int i = 0; i < count; i++) {
+                    steps[i] = pdfPageRenderer.subsampling(reader.getWidth(i), reader.getHeight(i));
+                }
+                long bytes = tiffRasterBytes(reader, steps);
+                double scale = pdfPageRenderer.budgetScale(bytes);
+                if (scale < 1.0) {
+                    for (int i = 0; i < count; i++) {
+                        steps[i] = (int) Math.ceil(steps[i] / scale);
+                    }
+                    bytes = tiffRasterBytes(reader, steps);
+                }
+                return pdfPageRenderer.withMemory(bytes, () -> decodeTiff(reader, steps, encoder));
+            } finally {
+                reader.dispose();
             }
-            g.dispose();
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(combined, "png", baos);
-            return baos.toByteArray();
-        } catch (Exception e) {
-            return data;
         }
     }
 
-    private String getClientIp(HttpServletRequest request) {
-        for (String header : IP_HEADERS) {
-            String value = request.getHeader(header);
-            if (value != null && !value.isEmpty() && !"unknown".equalsIgnoreCase(value)) {
-                return value.split(",")[0].trim();
+    private List<byte[]> decodeTiff(ImageReader reader, int[] steps, ImageEncoder encoder) throws IOException {
+        // Paged: one frame at a time, dropped once encoded
+        if (pagedViewer) {
+            List<byte[]> pages = new ArrayList<>(steps.length);
+            for (int i = 0; i < steps.length; i++) {
+                pages.add(encoder.encode(reader.read(i, subsampled(reader, steps[i]))));
             }
+            return pages;
         }
-        return request.getRemoteAddr();
+        List<BufferedImage> frames = new ArrayList<>(steps.length);
+        for (int i = 0; i < steps.length; i++) {
+            frames.add(reader.read(i, subsampled(reader, steps[i])));
+        }
+        return Collections.singletonList(encoder.encode(PdfPageRenderer.stitch(frames)));
     }
 
-    private byte[] extractAndDecodePdf(String json) {
-        try {
-            JsonNode rootNode = objectMapper.readTree(json);
-            return Base64.getDecoder().decode(rootNode.get("StreamBytes").asText());
-        } catch (Exception e) {
-            throw new RuntimeException("Decode Error");
+    private static ImageReadParam subsampled(ImageReader reader, int step) {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        return param;
+    }
+
+    // Decoded frames at up to 4 bytes a pixel: the largest one when paged, else
+    // all of them plus the stitched image
+    private long tiffRasterBytes(ImageReader reader, int[] steps) throws IOException {
+        long largest = 0;
+        long all = 0;
+        long rowWidth = 0;
+        long rowHeight = 0;
+        for (int i = 0; i < steps.length; i++) {
+            long width = (reader.getWidth(i) + steps[i] - 1) / steps[i];
+            long height = (reader.getHeight(i) + steps[i] - 1) / steps[i];
+            largest = Math.max(largest, width * height * 4);
+            all += width * height * 4;
+            rowWidth += width;
+            rowHeight = Math.max(rowHeight, height);
         }
+        return pagedViewer ? largest : all + rowWidth * rowHeight * 4;
     }
 
-    static class HttpGetWithEntity extends HttpEntityEnclosingRequestBase {
-        public static final String METHOD_NAME = "GET";
+    // Adds the time spent in every encode call to the "encode" stage
+    private static ImageEncoder timed(ImageEncoder encoder, ViewTimings timings) {
+        return new ImageEncoder() {
+            @Override
+            public String getMimeType() {
+                return encoder.getMimeType();
+            }
 
-        public HttpGetWithEntity(String uri) {
-            setURI(URI.create(uri));
-        }
+            @Override
+            public byte[] encode(BufferedImage image) throws IOException {
+                long start = System.nanoTime();
+                try {
+                    return encoder.encode(image);
+                } finally {
+                    timings.record("encode", System.nanoTime() - start);
+                }
+            }
+        };
+    }
 
-        @Override
-        public String getMethod() {
-            return METHOD_NAME;
+    private String getClientIp(HttpServletRequest request) {
+        for (String header : IP_HEADERS) {
+            String value = request.getHeader(header);
+            if (value != null && !value.isEmpty() && !"unknown".equalsIgnoreCase(value)) {
+                return value.split(",")[0].trim();
+            }
         }
+        return request.getRemoteAddr();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,17 @@
+package com.nbk;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Turns a rendered page into the bytes the viewer receives.
+ */
+public interface ImageEncoder {
+
+    /**
+     * MIME type of the encoded bytes, as the viewer must label them.
+     */
+    String getMimeType();
+
+    byte[] encode(BufferedImage image) throws IOException;
+}
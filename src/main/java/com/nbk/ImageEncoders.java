@@ -0,0 +1,53 @@
+package com.nbk;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Picks the page encoder for a document type.
+ *
+ * {@code app.image.encoding} is the default spec (see {@link ImageIoEncoder});
+ * {@code app.image.encoding-by-type} overrides it per Laserfiche document type,
+ * e.g. {@code {'national id':'jpeg:0.8:gray'}}.
+ */
+@Component
+public class ImageEncoders {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImageEncoders.class);
+
+    @Value("${app.image.encoding:png}")
+    private String defaultSpec;
+
+    @Value("#{${app.image.encoding-by-type:{:}}}")
+    private Map<String, String> specsByType;
+
+    private ImageEncoder defaultEncoder;
+    private final Map<String, ImageEncoder> encodersByType = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        defaultEncoder = ImageIoEncoder.parse(defaultSpec);
+        for (Map.Entry<String, String> e : specsByType.entrySet()) {
+            encodersByType.put(e.getKey().trim().toLowerCase(Locale.ROOT), ImageIoEncoder.parse(e.getValue()));
+        }
+        logger.info("Image encoding: default={}, byType={}", defaultEncoder, encodersByType);
+    }
+
+    public ImageEncoder forDocumentType(String documentType) {
+        if (documentType != null) {
+            ImageEncoder encoder = encodersByType.get(documentType.trim().toLowerCase(Locale.ROOT));
+            if (encoder != null) {
+                return encoder;
+            }
+        }
+        return defaultEncoder;
+    }
+}
@@ -0,0 +1,123 @@
+package com.nbk;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * {@link ImageEncoder} backed by the JDK's ImageIO writers (PNG and JPEG).
+ *
+ * Configured from a spec string {@code <format>[:<level>][:gray]}:
+ * {@code png}, {@code png:1} (deflate level 0-9), {@code jpeg:0.8} (quality
+ * 0-1), {@code jpeg:0.75:gray}. Output is staged in memory rather than in the
+ * temp-file cache {@code ImageIO.write} uses by default.
+ */
+public final class ImageIoEncoder implements ImageEncoder {
+
+    private final String format;
+    private final String mimeType;
+    // ImageWriteParam compression quality, or -1 for the writer default
+    private final float compressionQuality;
+    private final boolean grayscale;
+    private final String spec;
+
+    private ImageIoEncoder(String format, String mimeType, float compressionQuality, boolean grayscale,
+            String spec) {
+        this.format = format;
+        this.mimeType = mimeType;
+        this.compressionQuality = compressionQuality;
+        this.grayscale = grayscale;
+        this.spec = spec;
+    }
+
+    /**
+     * Parses an encoding spec; throws {@link IllegalArgumentException} on anything it does not know.
+     */
+    public static ImageIoEncoder parse(String spec) {
+        String[] parts = spec.trim().toLowerCase(Locale.ROOT).split(":");
+        String format = parts[0];
+        float quality = -1f;
+        boolean gray = false;
+        for (int i = 1; i < parts.length; i++) {
+            if ("gray".equals(parts[i]) || "grey".equals(parts[i])) {
+                gray = true;
+            } else if (!parts[i].isEmpty()) {
+                quality = Float.parseFloat(parts[i]);
+            }
+        }
+
+        switch (format) {
+            case "png":
+                if (quality > 9 || (quality >= 0 && quality != (int) quality)) {
+                    throw new IllegalArgumentException("PNG level must be 0-9: " + spec);
+                }
+                // ImageIO maps quality 1.0 to no compression and 0.0 to maximum
+                return new ImageIoEncoder("png", "image/png", quality < 0 ? -1f : 1f - quality / 9f, gray, spec);
+            case "jpg":
+            case "jpeg":
+                if (quality > 1) {
+                    throw new IllegalArgumentException("JPEG quality must be 0-1: " + spec);
+                }
+                return new ImageIoEncoder("jpeg", "image/jpeg", quality, gray, spec);
+            default:
+                throw new IllegalArgumentException("Unsupported image format: " + spec);
+        }
+    }
+
+    @Override
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    @Override
+    public byte[] encode(BufferedImage image) throws IOException {
+        BufferedImage source = grayscale ? toGray(image) : image;
+
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No ImageIO writer for " + format);
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        // The JDK 8 PNG writer cannot take a level; it then keeps its default
+        if (compressionQuality >= 0 && param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(compressionQuality);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+        try (ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(source, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static BufferedImage toGray(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = gray.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return gray;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,122 @@
+package com.nbk;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Node-local token store; payloads live in the {@link PayloadStore}.
+ *
+ * Every token is also queued by expiry time; a scheduled reaper drains the
+ * due ones, so the request path never scans the map and expired payloads are
+ * released even when no traffic arrives. The queue holds only keys, so a
+ * redeemed token's payload is unreachable as soon as it has been sent.
+ */
+@Component
+@ConditionalOnProperty(name = "app.token-store.type", havingValue = "memory", matchIfMissing = true)
+public class InMemoryTokenStore implements TokenStore {
+
+    private final ConcurrentHashMap<String, TokenEntry> entries = new ConcurrentHashMap<>();
+    private final DelayQueue<Expiry> expiries = new DelayQueue<>();
+    private final AtomicLong bytesHeld = new AtomicLong();
+
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private final PayloadStore payloadStore;
+
+    // Due-time handle for one stored entry; holds only the key, never the payload
+    private static class Expiry implements Delayed {
+        final String key;
+        final long expiryMs;
+
+        Expiry(String key, long expiryMs) {
+            this.key = key;
+            this.expiryMs = expiryMs;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(expiryMs - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(expiryMs, ((Expiry) other).expiryMs);
+        }
+    }
+
+    public InMemoryTokenStore(PayloadStore payloadStore, MeterRegistry registry) {
+        this.payloadStore = payloadStore;
+        Gauge.builder("viewer.tokens.live", entries, ConcurrentHashMap::size)
+                .description("Issued page tokens not yet used or expired").register(registry);
+        Gauge.builder("viewer.tokens.bytes", bytesHeld, AtomicLong::get).baseUnit("bytes")
+                .description("Payload bytes held by live tokens").register(registry);
+        FunctionCounter.builder("viewer.tokens.removals", consumed, AtomicLong::get).tag("cause", "consumed")
+                .register(registry);
+        FunctionCounter.builder("viewer.tokens.removals", expired, AtomicLong::get).tag("cause", "expired")
+                .register(registry);
+    }
+
+    @Override
+    public void put(String key, byte[] ciphertext, byte[] prefix, long expiryMs) {
+        TokenEntry entry = new TokenEntry(payloadStore.store(ciphertext), prefix, expiryMs);
+        bytesHeld.addAndGet(entry.getPayload().length());
+        TokenEntry previous = entries.put(key, entry);
+        if (previous != null) {
+            discard(previous);
+        }
+        expiries.add(new Expiry(key, expiryMs));
+    }
+
+    @Override
+    public TokenEntry take(String key) {
+        TokenEntry entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        bytesHeld.addAndGet(-entry.getPayload().length());
+        if (entry.isExpired()) {
+            entry.getPayload().release();
+            expired.incrementAndGet();
+            return null;
+        }
+        consumed.incrementAndGet();
+        return entry;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops every token whose expiry has passed.
+     */
+    @Scheduled(fixedDelayString = "${app.tokens.reap-interval-ms:1000}")
+    public void reap() {
+        Expiry due;
+        while ((due = expiries.poll()) != null) {
+            // A no-op when the token was consumed or replaced in the meantime
+            TokenEntry entry = entries.get(due.key);
+            if (entry != null && entry.getExpiryMs() == due.expiryMs && entries.remove(due.key, entry)) {
+                discard(entry);
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    private void discard(TokenEntry entry) {
+        bytesHeld.addAndGet(-entry.getPayload().length());
+        entry.getPayload().release();
+    }
+}
@@ -0,0 +1,189 @@
+package com.nbk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the parsed RSA key material used for link tokens.
+ *
+ * Keys are read and parsed once at startup instead of on every viewer request.
+ * The bundled classpath pair is registered under the configured active key id
+ * unless the directory provides that id; an optional key directory may hold
+ * further pairs named {@code <kid>.private.pem} and {@code <kid>.public.pem}.
+ * A reload in which the active id lacks either half fails, and the previous
+ * keys stay in use. The directory is re-scanned periodically so keys
+ * can be rotated without a restart: drop the new pair in, point the {@code active}
+ * file (or {@code app.keys.active-id}) at it, and keep the old pair around until
+ * every link issued with it has expired.
+ */
+@Component
+public class KeyProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyProvider.class);
+
+    private static final String PRIVATE_SUFFIX = ".private.pem";
+    private static final String PUBLIC_SUFFIX = ".public.pem";
+    private static final String ACTIVE_FILE = "active";
+
+    @Value("${app.keys.active-id:default}")
+    private String configuredActiveId;
+
+    @Value("${app.keys.dir:}")
+    private String keyDir;
+
+    // Swapped atomically on reload; readers never see a half-built key set
+    private volatile KeySet keys;
+
+    // ─── Key Set ────────────────────────────────────────────────────────────────
+
+    private static class KeySet {
+        final String activeId;
+        final Map<String, PrivateKey> privateKeys;
+        final Map<String, PublicKey> publicKeys;
+        final List<PrivateKey> decryptionOrder;
+
+        KeySet(String activeId, Map<String, PrivateKey> privateKeys, Map<String, PublicKey> publicKeys) {
+            this.activeId = activeId;
+            this.privateKeys = Collections.unmodifiableMap(privateKeys);
+            this.publicKeys = Collections.unmodifiableMap(publicKeys);
+
+            // Active key first so current links decrypt on the first attempt
+            List<PrivateKey> order = new ArrayList<>(privateKeys.size());
+            PrivateKey active = privateKeys.get(activeId);
+            if (active != null) {
+                order.add(active);
+            }
+            for (Map.Entry<String, PrivateKey> e : privateKeys.entrySet()) {
+                if (!e.getKey().equals(activeId)) {
+                    order.add(e.getValue());
+                }
+            }
+            this.decryptionOrder = Collections.unmodifiableList(order);
+        }
+    }
+
+    // ─── Lifecycle ──────────────────────────────────────────────────────────────
+
+    @PostConstruct
+    public void init() throws Exception {
+        reload();
+    }
+
+    @Scheduled(initialDelayString = "${app.keys.refresh-interval-ms:300000}",
+            fixedDelayString = "${app.keys.refresh-interval-ms:300000}")
+    public void refresh() {
+        try {
+            reload();
+        } catch (Exception e) {
+            // Keep serving with the previous key set
+            logger.error("Key refresh failed, keeping current keys: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Re-reads all key material and swaps it in atomically.
+     */
+    public synchronized void reload() throws Exception {
+        Map<String, PrivateKey> privateKeys = new LinkedHashMap<>();
+        Map<String, PublicKey> publicKeys = new LinkedHashMap<>();
+        String activeId = configuredActiveId;
+
+        File dir = keyDir == null || keyDir.trim().isEmpty() ? null : new File(keyDir.trim());
+        if (dir != null && dir.isDirectory()) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    String name = f.getName();
+                    if (name.endsWith(PRIVATE_SUFFIX)) {
+                        privateKeys.put(kid(name, PRIVATE_SUFFIX), KeyLoader.parsePrivateKey(read(f)));
+                    } else if (name.endsWith(PUBLIC_SUFFIX)) {
+                        publicKeys.put(kid(name, PUBLIC_SUFFIX), KeyLoader.parsePublicKey(read(f)));
+                    }
+                }
+            }
+            File active = new File(dir, ACTIVE_FILE);
+            if (active.isFile()) {
+                activeId = read(active).trim();
+            }
+        } else if (dir != null) {
+            logger.warn("Key directory {} does not exist, using bundled keys only", dir);
+        }
+
+        // The bundled pair only ever stands for the configured id, and only as a whole pair
+        if (!privateKeys.containsKey(configuredActiveId) && !publicKeys.containsKey(configuredActiveId)) {
+            privateKeys.put(configuredActiveId, KeyLoader.loadPrivateKey());
+            publicKeys.put(configuredActiveId, KeyLoader.loadPublicKey());
+        }
+        // Never mix halves: links issued under an incomplete active kid could not be opened
+        if (!privateKeys.containsKey(activeId) || !publicKeys.containsKey(activeId)) {
+            throw new IllegalStateException("Active key id '" + activeId + "' needs both " + activeId
+                    + PRIVATE_SUFFIX + " and " + activeId + PUBLIC_SUFFIX);
+        }
+
+        KeySet previous = keys;
+        keys = new KeySet(activeId, privateKeys, publicKeys);
+
+        if (previous == null || !previous.activeId.equals(activeId)
+                || !previous.privateKeys.keySet().equals(privateKeys.keySet())) {
+            logger.info("Loaded key ids {} (active={})", privateKeys.keySet(), activeId);
+        }
+    }
+
+    // ─── Accessors ──────────────────────────────────────────────────────────────
+
+    public String getActiveKeyId() {
+        return keys.activeId;
+    }
+
+    public PrivateKey getPrivateKey() {
+        KeySet current = keys;
+        return current.privateKeys.get(current.activeId);
+    }
+
+    public PrivateKey getPrivateKey(String keyId) {
+        return keys.privateKeys.get(keyId);
+    }
+
+    public PublicKey getPublicKey() {
+        KeySet current = keys;
+        return current.publicKeys.get(current.activeId);
+    }
+
+    public PublicKey getPublicKey(String keyId) {
+        return keys.publicKeys.get(keyId);
+    }
+
+    /**
+     * All private keys, active key first — for tokens that do not carry a key id.
+     */
+    public List<PrivateKey> getDecryptionKeys() {
+        return keys.decryptionOrder;
+    }
+
+    // ─── Helpers ───────────────────────────────────────────────────────────────
+
+    private static String kid(String fileName, String suffix) {
+        return fileName.substring(0, fileName.length() - suffix.length());
+    }
+
+    private static String read(File f) throws IOException {
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,310 @@
+package com.nbk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Upstream client for the Laserfiche GetDocument API.
+ *
+ * Owns one pooled, connection-reusing HTTP client with explicit timeouts,
+ * keep-alive and idle eviction, and publishes pool usage and lease wait times.
+ */
+@Component
+public class LaserficheClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(LaserficheClient.class);
+
+    // Upper bound on the up-front decode buffer; larger documents grow it as they stream in
+    private static final int MAX_DECODE_PRESIZE = 16 * 1024 * 1024;
+
+    @Value("${app.laserfiche.url}")
+    private String laserficheUrl;
+
+    @Value("${app.laserfiche.auth-header}")
+    private String authHeader;
+
+    @Value("${app.laserfiche.pool.max-total:100}")
+    private int maxTotal;
+
+    @Value("${app.laserfiche.pool.max-per-route:50}")
+    private int maxPerRoute;
+
+    @Value("${app.laserfiche.connect-timeout-ms:5000}")
+    private int connectTimeoutMs;
+
+    @Value("${app.laserfiche.socket-timeout-ms:30000}")
+    private int socketTimeoutMs;
+
+    @Value("${app.laserfiche.lease-timeout-ms:5000}")
+    private int leaseTimeoutMs;
+
+    @Value("${app.laserfiche.keep-alive-ms:30000}")
+    private long keepAliveMs;
+
+    @Value("${app.laserfiche.idle-evict-ms:30000}")
+    private long idleEvictMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MeterRegistry registry;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private Timer leaseWait;
+
+    public LaserficheClient(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    // ─── Lifecycle ──────────────────────────────────────────────────────────────
+
+    @PostConstruct
+    public void init() {
+        try {
+            SSLContext sslContext = new SSLContextBuilder()
+                    .loadTrustMaterial(null, (certificate, authType) -> true)
+                    .build();
+
+            Registry<ConnectionSocketFactory> sockets = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE))
+                    .build();
+
+            leaseWait = Timer.builder("upstream.pool.lease.wait")
+                    .description("Time spent waiting for a pooled Laserfiche connection")
+                    .register(registry);
+
+            connectionManager = new TimedConnectionManager(sockets, leaseWait);
+            connectionManager.setMaxTotal(maxTotal);
+            connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+            // Re-check connections that sat idle, the upstream may have closed them
+            connectionManager.setValidateAfterInactivity(2000);
+
+            RequestConfig requestConfig = RequestConfig.custom()
+                    .setConnectTimeout(connectTimeoutMs)
+                    .setSocketTimeout(socketTimeoutMs)
+                    .setConnectionRequestTimeout(leaseTimeoutMs)
+                    .build();
+
+            this.httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(requestConfig)
+                    .setKeepAliveStrategy(keepAliveStrategy())
+                    .evictExpiredConnections()
+                    .evictIdleConnections(idleEvictMs, TimeUnit.MILLISECONDS)
+                    .build();
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create HttpClient", e);
+        }
+
+        Gauge.builder("upstream.pool.leased", connectionManager, m -> m.getTotalStats().getLeased())
+                .register(registry);
+        Gauge.builder("upstream.pool.available", connectionManager, m -> m.getTotalStats().getAvailable())
+                .register(registry);
+        Gauge.builder("upstream.pool.pending", connectionManager, m -> m.getTotalStats().getPending())
+                .register(registry);
+        Gauge.builder("upstream.pool.max", connectionManager, m -> m.getTotalStats().getMax())
+                .register(registry);
+
+        logger.info("Laserfiche client pool: maxTotal={}, maxPerRoute={}", maxTotal, maxPerRoute);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    // ─── API ────────────────────────────────────────────────────────────────────
+
+    /**
+     * Fetches a document and returns its decoded bytes.
+     */
+    public UpstreamDocument fetchDocument(DocumentKey documentKey) throws Exception {
+        return fetchDocument(documentKey, new ViewTimings());
+    }
+
+    /**
+     * Fetches a document, recording the {@code upstream} (until the response
+     * headers) and {@code decode} (body, JSON and Base64) stages.
+     */
+    public UpstreamDocument fetchDocument(DocumentKey documentKey, ViewTimings timings) throws Exception {
+        Map<String, String> body = new LinkedHashMap<>();
+        body.put("CaseID", documentKey.getCaseId());
+        body.put("RequestID", documentKey.getRequestId());
+        body.put("DocumentType", documentKey.getDocumentType());
+
+        HttpGetWithEntity req = new HttpGetWithEntity(laserficheUrl);
+        req.setEntity(new StringEntity(objectMapper.writeValueAsString(body), StandardCharsets.UTF_8));
+        req.setHeader("Authorization", authHeader);
+        req.setHeader("Content-Type", "application/json");
+
+        long start = System.nanoTime();
+        try (CloseableHttpResponse response = httpClient.execute(req)) {
+            timings.record("upstream", System.nanoTime() - start);
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != 200) {
+                throw new RuntimeException("Upstream failure: " + statusCode);
+            }
+            // Reading the entity to the end returns the connection to the pool
+            long decodeStart = System.nanoTime();
+            UpstreamDocument document = extractAndDecodePdf(response.getEntity());
+            timings.record("decode", System.nanoTime() - decodeStart);
+            return document;
+        }
+    }
+
+    // ─── Helpers ───────────────────────────────────────────────────────────────
+
+    /**
+     * Streams the Laserfiche JSON straight off the socket and Base64-decodes
+     * {@code StreamBytes} incrementally into a single buffer, instead of holding
+     * the body string, a JSON tree and the decoded bytes at the same time.
+     */
+    UpstreamDocument extractAndDecodePdf(HttpEntity entity) {
+        try (InputStream in = entity.getContent();
+                JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected JSON object");
+            }
+            String entryId = null;
+            byte[] bytes = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("StreamBytes".equals(field) && value == JsonToken.VALUE_STRING) {
+                    // Decoded size is at most 3/4 of the body (which also holds the other
+                    // fields); presize to that, capped, since the length is upstream-controlled
+                    long length = entity.getContentLength();
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0
+                            ? (int) Math.min(length / 4 * 3, MAX_DECODE_PRESIZE) : 64 * 1024);
+                    parser.readBinaryValue(Base64Variants.getDefaultVariant(), out);
+                    bytes = out.toByteArray();
+                } else if ("EntryID".equals(field) && value.isScalarValue()) {
+                    entryId = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (bytes == null) {
+                throw new IOException("StreamBytes missing");
+            }
+            return new UpstreamDocument(entryId, bytes);
+        } catch (Exception e) {
+            throw new RuntimeException("Decode Error");
+        }
+    }
+
+    /**
+     * Honours the server's Keep-Alive timeout and otherwise keeps connections
+     * for {@code app.laserfiche.keep-alive-ms} instead of indefinitely.
+     */
+    private ConnectionKeepAliveStrategy keepAliveStrategy() {
+        return (response, context) -> {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement he = it.nextElement();
+                if ("timeout".equalsIgnoreCase(he.getName()) && he.getValue() != null) {
+                    try {
+                        return Long.parseLong(he.getValue()) * 1000L;
+                    } catch (NumberFormatException ignore) {
+                        // fall through to the default
+                    }
+                }
+            }
+            return keepAliveMs;
+        };
+    }
+
+    /** Records how long each request waits for a connection lease. */
+    private static class TimedConnectionManager extends PoolingHttpClientConnectionManager {
+        private final Timer leaseWait;
+
+        TimedConnectionManager(Registry<ConnectionSocketFactory> sockets, Timer leaseWait) {
+            super(sockets);
+            this.leaseWait = leaseWait;
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            ConnectionRequest delegate = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public org.apache.http.HttpClientConnection get(long timeout, TimeUnit unit)
+                        throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    try {
+                        return delegate.get(timeout, unit);
+                    } finally {
+                        leaseWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return delegate.cancel();
+                }
+            };
+        }
+    }
+
+    static class HttpGetWithEntity extends HttpEntityEnclosingRequestBase {
+        public static final String METHOD_NAME = "GET";
+
+        public HttpGetWithEntity(String uri) {
+            setURI(URI.create(uri));
+        }
+
+        @Override
+        public String getMethod() {
+            return METHOD_NAME;
+        }
+    }
+}
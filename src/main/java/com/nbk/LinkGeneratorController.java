@@ -1,6 +1,5 @@
 package com.nbk;
 
-import java.security.PublicKey;
 import java.time.Instant;
 
 import javax.servlet.http.HttpServletRequest;
@@ -18,34 +17,47 @@ import org.springframework.web.bind.annotation.RestController;
  * to test the secure image viewer without needing the real T24 system.
  *
  * Usage: GET /generate-link?cif=100205&userId=user01&transactionId=TXN999
+ *        add &format=v1 for the legacy three-parameter link
  */
 @RestController
 public class LinkGeneratorController {
 
+    private final EncryptionOfTime encryptionOfTime;
+
+    public LinkGeneratorController(EncryptionOfTime encryptionOfTime) {
+        this.encryptionOfTime = encryptionOfTime;
+    }
+
     @GetMapping(value = "/generate-link", produces = MediaType.TEXT_HTML_VALUE)
     public ResponseEntity<String> generateLink(
             @RequestParam(name = "cif", defaultValue = "100205") String cif,
             @RequestParam(name = "userId", defaultValue = "user01") String userId,
             @RequestParam(name = "transactionId", defaultValue = "TXN999") String transactionId,
+            @RequestParam(name = "format", defaultValue = "v2") String format,
             HttpServletRequest request) {
 
         try {
-            PublicKey publicKey = KeyLoader.loadPublicKey();
-
-            String encCif = EncryptionOfTime.generateEncryptedToken(cif, publicKey);
-            String encUserId = EncryptionOfTime.generateEncryptedToken(userId, publicKey);
-            String encTransactionId = EncryptionOfTime.generateEncryptedToken(transactionId, publicKey);
-
             // Build the base URL from the incoming request so it works on any host/port
             String baseUrl = request.getScheme() + "://" + request.getServerName()
                     + ":" + request.getServerPort();
 
-            String viewerUrl = baseUrl + "/?"
-                    + "id=" + encCif
-                    + "&transactionId=" + encTransactionId
-                    + "&userId=" + encUserId;
+            String viewerUrl;
+            if ("v1".equals(format)) {
+                String encCif = encryptionOfTime.generateToken(cif);
+                String encUserId = encryptionOfTime.generateToken(userId);
+                String encTransactionId = encryptionOfTime.generateToken(transactionId);
+
+                viewerUrl = baseUrl + "/?"
+                        + "id=" + encCif
+                        + "&transactionId=" + encTransactionId
+                        + "&userId=" + encUserId;
+            } else {
+                format = "v2";
+                viewerUrl = baseUrl + "/?t="
+                        + encryptionOfTime.generateEnvelope(new LinkIdentity(cif, userId, transactionId));
+            }
 
-            return ResponseEntity.ok(buildHtml(cif, userId, transactionId, viewerUrl));
+            return ResponseEntity.ok(buildHtml(cif, userId, transactionId, format, viewerUrl));
 
         } catch (Exception e) {
             return ResponseEntity.internalServerError()
@@ -55,7 +67,7 @@ public class LinkGeneratorController {
 
     // ─── HTML ─────────────────────────────────────────────────────────────────
 
-    private String buildHtml(String cif, String userId, String transId, String viewerUrl) {
+    private String buildHtml(String cif, String userId, String transId, String format, String viewerUrl) {
         return "<!DOCTYPE html>\n"
                 + "<html lang='en'>\n"
                 + "<head>\n"
@@ -140,7 +152,7 @@ public class LinkGeneratorController {
                 + "      text-transform: uppercase;\n"
                 + "      letter-spacing: .05em;\n"
                 + "    }\n"
-                + "    input[type=text] {\n"
+                + "    input[type=text], select {\n"
                 + "      width: 100%;\n"
                 + "      background: var(--input-bg);\n"
                 + "      border: 1px solid var(--border);\n"
@@ -152,7 +164,7 @@ public class LinkGeneratorController {
                 + "      outline: none;\n"
                 + "      transition: border-color .2s;\n"
                 + "    }\n"
-                + "    input[type=text]:focus { border-color: var(--accent); }\n"
+                + "    input[type=text]:focus, select:focus { border-color: var(--accent); }\n"
                 + "    .btn {\n"
                 + "      display: inline-flex;\n"
                 + "      align-items: center;\n"
@@ -257,6 +269,13 @@ public class LinkGeneratorController {
                 + "        <input id='transactionId' type='text' name='transactionId' value='" + escapeHtml(transId)
                 + "' placeholder='e.g. TXN999'>\n"
                 + "      </div>\n"
+                + "      <div class='form-group'>\n"
+                + "        <label for='format'>Link Format</label>\n"
+                + "        <select id='format' name='format'>\n"
+                + "          <option value='v2'" + ("v2".equals(format) ? " selected" : "") + ">v2 (single envelope)</option>\n"
+                + "          <option value='v1'" + ("v1".equals(format) ? " selected" : "") + ">v1 (legacy)</option>\n"
+                + "        </select>\n"
+                + "      </div>\n"
                 + "    </div>\n"
                 + "    <button type='submit' class='btn'>⚡ Generate New Link</button>\n"
                 + "  </form>\n"
@@ -277,6 +296,7 @@ public class LinkGeneratorController {
                 + "    <div class='chip'>CIF: <strong>" + escapeHtml(cif) + "</strong></div>\n"
                 + "    <div class='chip'>User ID: <strong>" + escapeHtml(userId) + "</strong></div>\n"
                 + "    <div class='chip'>Transaction: <strong>" + escapeHtml(transId) + "</strong></div>\n"
+                + "    <div class='chip'>Format: <strong>" + escapeHtml(format) + "</strong></div>\n"
                 + "    <div class='chip'>Generated: <strong>" + Instant.now().toString().substring(0, 19)
                 + "Z</strong></div>\n"
                 + "  </div>\n"
@@ -308,6 +328,7 @@ public class LinkGeneratorController {
         String params = escapeHtml(url.substring(q + 1));
         // Highlight param names
         params = params
+                .replaceFirst("^(t=)", "<span class='hi'>$1</span>")
                 .replaceFirst("(id=)", "<span class='hi'>$1</span>")
                 .replaceFirst("(&amp;transactionId=)", "<span class='hi'>$1</span>")
                 .replaceFirst("(&amp;userId=)", "<span class='hi'>$1</span>");
@@ -0,0 +1,30 @@
+package com.nbk;
+
+/**
+ * The identity carried by a viewer link: whose document, who is viewing it,
+ * and under which transaction.
+ */
+public final class LinkIdentity {
+
+    private final String cif;
+    private final String userId;
+    private final String transactionId;
+
+    public LinkIdentity(String cif, String userId, String transactionId) {
+        this.cif = cif;
+        this.userId = userId;
+        this.transactionId = transactionId;
+    }
+
+    public String getCif() {
+        return cif;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+}
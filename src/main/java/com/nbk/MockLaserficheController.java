@@ -1,39 +1,291 @@
 package com.nbk;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.InputStream;
 import java.util.Base64;
-import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.PostConstruct;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+/**
+ * Stand-in for the Laserfiche GetDocument API, for development and load tests.
+ *
+ * By default it returns the bundled {@code response.json}, read once at
+ * startup. With {@code pages > 0} it returns a generated PDF instead: that
+ * many pages of the given paper format ({@code letter}, {@code a4}, {@code a3},
+ * {@code a0}; anything else is a 400), either vector text only or, with
+ * {@code scanDpi > 0}, a JPEG "scan" per page at that resolution. Generated
+ * responses are cached per shape.
+ *
+ * Latency ({@code latencyMs} plus up to {@code jitterMs}) and failures
+ * ({@code errorRate}, 0-1, answered with 500) can be injected. Every knob has
+ * an {@code app.mock.*} default and can be overridden per request by a query
+ * parameter, so a load test can point {@code LASERFICHE_URL} at e.g.
+ * {@code .../GetDocument?pages=12&scanDpi=200&latencyMs=150}.
+ *
+ * The endpoint is unauthenticated, so it only exists with
+ * {@code app.mock.enabled=true}. Scans are capped in pixels per page and per
+ * document (400 beyond), and generated responses are kept in an LRU cache of
+ * at most {@code app.mock.cache-max-bytes}.
+ */
 @RestController
+@ConditionalOnProperty(name = "app.mock.enabled", havingValue = "true")
 public class MockLaserficheController {
 
     private static final Logger logger = LoggerFactory.getLogger(MockLaserficheController.class);
 
+    private static final int MAX_PAGES = 500;
+    private static final int MAX_SCAN_DPI = 600;
+    // A4 at 600 DPI; one page raster is held while it is compressed
+    private static final long MAX_SCAN_PIXELS_PER_PAGE = 36_000_000L;
+    // Bounds the compressed scans, and the Base64 copies of them, in one response
+    private static final long MAX_SCAN_PIXELS_PER_DOCUMENT = 500_000_000L;
+
+    @Value("${app.mock.pages:0}")
+    private int defaultPages;
+
+    @Value("${app.mock.format:letter}")
+    private String defaultFormat;
+
+    @Value("${app.mock.scan-dpi:0}")
+    private int defaultScanDpi;
+
+    @Value("${app.mock.latency-ms:0}")
+    private long defaultLatencyMs;
+
+    @Value("${app.mock.jitter-ms:0}")
+    private long defaultJitterMs;
+
+    @Value("${app.mock.error-rate:0}")
+    private double defaultErrorRate;
+
+    @Value("${app.mock.cache-max-bytes:67108864}")
+    private long cacheMaxBytes;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SingleFlight<String, byte[]> generations = new SingleFlight<>();
+    // Generated responses per corpus shape, least recently used first; guarded by itself
+    private final LinkedHashMap<String, byte[]> responses = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private byte[] bundled;
+
+    @PostConstruct
+    public void init() throws IOException {
+        try (InputStream in = MockLaserficheController.class.getResourceAsStream("/response.json")) {
+            if (in == null) {
+                throw new IOException("response.json missing from the classpath");
+            }
+            bundled = StreamUtils.copyToByteArray(in);
+        }
+        logger.warn("Mock Laserfiche endpoint enabled at /mock/LaserficheLOS/api/Values/GetDocument");
+    }
+
     @GetMapping(value = "/mock/LaserficheLOS/api/Values/GetDocument", produces = MediaType.APPLICATION_JSON_VALUE)
-    public Map<String, Object> getDocument() throws Exception {
+    public ResponseEntity<byte[]> getDocument(
+            @RequestParam(name = "pages", required = false) Integer pages,
+            @RequestParam(name = "format", required = false) String format,
+            @RequestParam(name = "scanDpi", required = false) Integer scanDpi,
+            @RequestParam(name = "latencyMs", required = false) Long latencyMs,
+            @RequestParam(name = "jitterMs", required = false) Long jitterMs,
+            @RequestParam(name = "errorRate", required = false) Double errorRate) throws Exception {
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = orDefault(latencyMs, defaultLatencyMs);
+        long jitter = orDefault(jitterMs, defaultJitterMs);
+        if (jitter > 0) {
+            delay += random.nextLong(jitter + 1);
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+        if (random.nextDouble() < orDefault(errorRate, defaultErrorRate)) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new byte[0]);
+        }
 
-        // load reso=ponse from the response.json file
-        String responseJson = new String(Files.readAllBytes(Paths.get("src/main/resources/response.json")));
-        Map<String, Object> response = new ObjectMapper().readValue(responseJson, Map.class);
-        return response;
+        int pageCount = Math.min(MAX_PAGES, orDefault(pages, defaultPages));
+        byte[] body;
+        if (pageCount <= 0) {
+            body = bundled;
+        } else {
+            String paper = orDefault(format, defaultFormat).toLowerCase(Locale.ROOT);
+            PDRectangle size = paperSize(paper);
+            if (size == null) {
+                return ResponseEntity.badRequest().body(new byte[0]);
+            }
+            int dpi = Math.max(0, Math.min(MAX_SCAN_DPI, orDefault(scanDpi, defaultScanDpi)));
+            long scanPixels = scanPixels(size, dpi);
+            if (scanPixels > MAX_SCAN_PIXELS_PER_PAGE || scanPixels * pageCount > MAX_SCAN_PIXELS_PER_DOCUMENT) {
+                logger.warn("Mock document too large: pages={}, format={}, scanDpi={}", pageCount, paper, dpi);
+                return ResponseEntity.badRequest().body(new byte[0]);
+            }
+            body = generated(pageCount, paper, size, dpi);
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
+    // ─── Corpus ────────────────────────────────────────────────────────────────
+
+    // Cached, or generated once however many requests ask for the shape meanwhile
+    private byte[] generated(int pages, String paper, PDRectangle size, int dpi) {
+        String shape = pages + "/" + paper + "/" + dpi;
+        synchronized (responses) {
+            byte[] body = responses.get(shape);
+            if (body != null) {
+                return body;
+            }
+        }
+        byte[] body = generations.execute(shape,
+                () -> CompletableFuture.completedFuture(generateResponse(pages, paper, size, dpi))).join();
+        cache(shape, body);
+        return body;
+    }
+
+    private void cache(String shape, byte[] body) {
+        if (body.length > cacheMaxBytes) {
+            return;
+        }
+        synchronized (responses) {
+            byte[] previous = responses.put(shape, body);
+            cachedBytes += body.length - (previous != null ? previous.length : 0);
+            Iterator<byte[]> eldest = responses.values().iterator();
+            while (cachedBytes > cacheMaxBytes && eldest.hasNext()) {
+                cachedBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    int cachedShapes() {
+        synchronized (responses) {
+            return responses.size();
+        }
+    }
+
+    long cachedBytes() {
+        synchronized (responses) {
+            return cachedBytes;
+        }
+    }
+
+    private byte[] generateResponse(int pages, String format, PDRectangle paper, int scanDpi) {
+        try {
+            long start = System.currentTimeMillis();
+            byte[] pdf = generatePdf(pages, paper, scanDpi);
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("EntryID", "mock-" + pages + "-" + format + "-" + scanDpi);
+            response.put("ResponseCode", "0");
+            response.put("ResponseMessage", new String[] { "Success" });
+            response.put("StreamBytes", Base64.getEncoder().encodeToString(pdf));
+            byte[] body = objectMapper.writeValueAsBytes(response);
+            logger.info("Generated mock document: pages={}, format={}, scanDpi={}, pdf={} KB in {} ms",
+                    pages, format, scanDpi, pdf.length / 1024, System.currentTimeMillis() - start);
+            return body;
+        } catch (IOException e) {
+            throw new IllegalStateException("Mock document generation failed", e);
+        }
+    }
+
+    // Null for a format the mock does not know
+    private static PDRectangle paperSize(String format) {
+        switch (format) {
+            case "a4":
+                return PDRectangle.A4;
+            case "a3":
+                return PDRectangle.A3;
+            case "a0":
+                return PDRectangle.A0;
+            case "letter":
+                return PDRectangle.LETTER;
+            default:
+                return null;
+        }
+    }
+
+    private static byte[] generatePdf(int pages, PDRectangle paper, int scanDpi) throws IOException {
+        // Same shape, same bytes: the corpus is reproducible between runs
+        Random random = new Random(31L * pages + scanDpi);
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage(paper);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    if (scanDpi > 0) {
+                        PDImageXObject scan = JPEGFactory.createFromImage(document,
+                                scanImage(paper, scanDpi, random), 0.75f);
+                        content.drawImage(scan, 0, 0, paper.getWidth(), paper.getHeight());
+                    }
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA_BOLD, 18);
+                    content.newLineAtOffset(72, paper.getHeight() - 72);
+                    content.showText("Mock document - page " + (i + 1) + " of " + pages);
+                    content.endText();
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static long scanPixels(PDRectangle paper, int dpi) {
+        return (long) Math.round(paper.getWidth() / 72f * dpi) * Math.round(paper.getHeight() / 72f * dpi);
+    }
+
+    // Off-white page with grey "text lines" and speckle, roughly what a scanner produces
+    private static BufferedImage scanImage(PDRectangle paper, int dpi, Random random) {
+        int width = Math.round(paper.getWidth() / 72f * dpi);
+        int height = Math.round(paper.getHeight() / 72f * dpi);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(245, 245, 240));
+        g.fillRect(0, 0, width, height);
+        int margin = dpi;
+        int lineHeight = Math.max(2, dpi / 6);
+        for (int y = margin * 2; y < height - margin; y += lineHeight * 2) {
+            int shade = 40 + random.nextInt(60);
+            g.setColor(new Color(shade, shade, shade));
+            g.fillRect(margin, y, (int) ((width - 2 * margin) * (0.5 + random.nextDouble() / 2)), lineHeight);
+        }
+        for (int i = 0; i < width * height / 500; i++) {
+            int shade = random.nextInt(256);
+            image.getRaster().setSample(random.nextInt(width), random.nextInt(height), 0, shade);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static <T> T orDefault(T value, T fallback) {
+        return value != null ? value : fallback;
+    }
 }
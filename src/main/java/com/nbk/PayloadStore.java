@@ -0,0 +1,343 @@
+package com.nbk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Holds encrypted page payloads between the viewer page and the one-time
+ * data fetch.
+ *
+ * {@code heap} keeps plain byte arrays, {@code direct} copies each payload
+ * into its own direct buffer and {@code mapped} carves payloads out of a
+ * memory-mapped spill file used as a ring. All modes share one byte budget;
+ * when a new payload does not fit, the oldest payloads that are not being
+ * sent right now are evicted and their tokens fail like expired ones.
+ * Released and evicted payloads are zeroed before their space is reused.
+ */
+@Component
+public class PayloadStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PayloadStore.class);
+
+    private static final int COPY_CHUNK = 8 * 1024;
+    private static final byte[] ZEROS = new byte[COPY_CHUNK];
+
+    // Tomcat's servlet stream takes a ByteBuffer directly; other containers get chunked copies
+    private static final boolean TOMCAT_STREAM = ClassUtils.isPresent(
+            "org.apache.catalina.connector.CoyoteOutputStream", PayloadStore.class.getClassLoader());
+
+    private enum Mode { HEAP, DIRECT, MAPPED }
+
+    @Value("${app.payload-store.type:heap}")
+    private String type;
+
+    @Value("${app.payload-store.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${app.payload-store.spill-file:}")
+    private String spillFile;
+
+    private Mode mode;
+
+    // Mapped mode: the spill file and the next free ring offset
+    private Path spillPath;
+    private FileChannel spillChannel;
+    private MappedByteBuffer arena;
+    private int ringHead;
+
+    // Insertion order, oldest first; also the ring order for mapped payloads
+    private final LinkedHashSet<Payload> live = new LinkedHashSet<>();
+    private long usedBytes;
+
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final MeterRegistry registry;
+
+    public PayloadStore(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    // ─── Lifecycle ──────────────────────────────────────────────────────────────
+
+    @PostConstruct
+    public void init() throws IOException {
+        mode = Mode.valueOf(type.trim().toUpperCase(Locale.ROOT));
+        if (mode == Mode.MAPPED) {
+            int capacity = (int) Math.min(maxBytes, Integer.MAX_VALUE);
+            spillPath = spillFile.isEmpty()
+                    ? Files.createTempFile("viewer-payloads-", ".spill")
+                    : Paths.get(spillFile);
+            spillChannel = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            arena = spillChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        String modeTag = mode.name().toLowerCase(Locale.ROOT);
+        Gauge.builder("viewer.payloads.bytes", this, PayloadStore::bytes).tag("type", modeTag)
+                .baseUnit("bytes").register(registry);
+        Gauge.builder("viewer.payloads.count", this, PayloadStore::size).tag("type", modeTag)
+                .register(registry);
+        FunctionCounter.builder("viewer.payloads.evictions", evictions, AtomicLong::get).tag("type", modeTag)
+                .description("Payloads dropped before they were fetched").register(registry);
+        FunctionCounter.builder("viewer.payloads.fallbacks", fallbacks, AtomicLong::get).tag("type", modeTag)
+                .description("Payloads kept on the heap because the spill ring was pinned").register(registry);
+
+        logger.info("Payload store: type={}, maxBytes={}{}", modeTag, maxBytes,
+                spillPath != null ? ", spillFile=" + spillPath : "");
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (spillChannel != null) {
+            spillChannel.close();
+            if (spillFile.isEmpty()) {
+                Files.deleteIfExists(spillPath);
+            }
+        }
+    }
+
+    // ─── API ────────────────────────────────────────────────────────────────────
+
+    /**
+     * Stores {@code data}; in heap mode the array itself is kept, so callers
+     * must not reuse it.
+     */
+    public Payload store(byte[] data) {
+        int length = data.length;
+        Payload payload;
+        synchronized (this) {
+            reclaim(length);
+            int offset = mode == Mode.MAPPED ? reserveRing(length) : -1;
+            if (mode == Mode.HEAP || (mode == Mode.MAPPED && offset < 0)) {
+                if (mode == Mode.MAPPED) {
+                    fallbacks.incrementAndGet();
+                }
+                payload = new Payload(ByteBuffer.wrap(data), -1);
+            } else if (mode == Mode.DIRECT) {
+                payload = new Payload(ByteBuffer.allocateDirect(length), -1);
+            } else {
+                ByteBuffer slice = arena.duplicate();
+                slice.position(offset);
+                slice.limit(offset + length);
+                payload = new Payload(slice.slice(), offset);
+            }
+            live.add(payload);
+            usedBytes += length;
+            if (payload.buffer.hasArray()) {
+                return payload;
+            }
+            // Pinned while it fills, so no other store() can evict it and reuse its ring space
+            payload.pinned = true;
+        }
+        // The slot is reserved; copy outside the lock
+        try {
+            payload.buffer.duplicate().put(data);
+        } finally {
+            unpin(payload);
+        }
+        return payload;
+    }
+
+    /**
+     * Wraps bytes held elsewhere, such as a shared token store, so they can be
+     * sent and wiped like a stored payload. Not counted against the budget.
+     */
+    public Payload wrap(byte[] data, int offset, int length) {
+        return new Payload(ByteBuffer.wrap(data, offset, length).slice(), -1);
+    }
+
+    public synchronized long bytes() {
+        return usedBytes;
+    }
+
+    public synchronized int size() {
+        return live.size();
+    }
+
+    // ─── Helpers ───────────────────────────────────────────────────────────────
+
+    /** Evicts the oldest unpinned payloads until {@code length} more bytes fit the budget. */
+    private void reclaim(int length) {
+        Iterator<Payload> it = live.iterator();
+        while (usedBytes + length > maxBytes && it.hasNext()) {
+            Payload p = it.next();
+            if (!p.pinned) {
+                it.remove();
+                evict(p);
+            }
+        }
+    }
+
+    /**
+     * Finds room for {@code length} bytes at the ring head, wrapping to the
+     * start when the tail is too short. Returns -1 when a payload that is
+     * being sent still occupies the space.
+     */
+    private int reserveRing(int length) {
+        int capacity = arena.capacity();
+        if (length > capacity) {
+            return -1;
+        }
+        boolean wrap = ringHead + length > capacity;
+        int start = wrap ? 0 : ringHead;
+        int end = start + length;
+
+        // Live ring payloads are laid out oldest first from the head onwards,
+        // so the space we need is held by a prefix of the live set
+        Iterator<Payload> it = live.iterator();
+        while (it.hasNext()) {
+            Payload p = it.next();
+            if (p.offset < 0) {
+                continue;
+            }
+            boolean overlaps = p.offset < end && start < p.offset + p.length;
+            boolean skipped = wrap && p.offset >= ringHead;
+            if (!overlaps && !skipped) {
+                break;
+            }
+            if (p.pinned) {
+                return -1;
+            }
+            it.remove();
+            evict(p);
+        }
+        ringHead = end;
+        return start;
+    }
+
+    private void evict(Payload p) {
+        wipe(p.buffer);
+        usedBytes -= p.length;
+        p.evicted = true;
+        evictions.incrementAndGet();
+    }
+
+    private synchronized boolean pin(Payload p) {
+        if (p.evicted || p.released) {
+            return false;
+        }
+        p.pinned = true;
+        return true;
+    }
+
+    private synchronized void unpin(Payload p) {
+        p.pinned = false;
+    }
+
+    private synchronized void free(Payload p) {
+        if (p.released) {
+            return;
+        }
+        p.released = true;
+        p.pinned = false;
+        if (!p.evicted) {
+            // Evicted ring space may already hold another payload, so only wipe our own
+            wipe(p.buffer);
+            if (live.remove(p)) {
+                usedBytes -= p.length;
+            }
+        }
+    }
+
+    private static void wipe(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int from = buffer.arrayOffset() + buffer.position();
+            Arrays.fill(buffer.array(), from, from + buffer.remaining(), (byte) 0);
+            return;
+        }
+        ByteBuffer dst = buffer.duplicate();
+        while (dst.hasRemaining()) {
+            dst.put(ZEROS, 0, Math.min(ZEROS.length, dst.remaining()));
+        }
+    }
+
+    // ─── Payload ───────────────────────────────────────────────────────────────
+
+    /** One stored payload. Guarded by the owning store's monitor. */
+    public final class Payload {
+        private final ByteBuffer buffer;
+        private final int offset;
+        private final int length;
+        private boolean pinned;
+        private boolean evicted;
+        private boolean released;
+
+        private Payload(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = buffer.remaining();
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Protects the payload from eviction while it is sent. Returns
+         * {@code false} if it was already evicted or released.
+         */
+        public boolean acquire() {
+            return pin(this);
+        }
+
+        /** Writes the payload to {@code out} without materialising it as one heap array. */
+        public void writeTo(OutputStream out) throws IOException {
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+                return;
+            }
+            if (TOMCAT_STREAM && TomcatOutput.write(out, buffer.duplicate())) {
+                return;
+            }
+            ByteBuffer src = buffer.duplicate();
+            byte[] chunk = new byte[Math.min(COPY_CHUNK, length)];
+            while (src.hasRemaining()) {
+                int n = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+
+        /** Wipes the payload and returns its space to the store. Safe to call more than once. */
+        public void release() {
+            free(this);
+        }
+    }
+
+    /** Kept apart so containers other than Tomcat never load {@link CoyoteOutputStream}. */
+    private static final class TomcatOutput {
+        static boolean write(OutputStream out, ByteBuffer src) throws IOException {
+            if (!(out instanceof CoyoteOutputStream)) {
+                return false;
+            }
+            ((CoyoteOutputStream) out).write(src);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package com.nbk;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Renders PDF pages to images on a dedicated, bounded worker pool.
+ *
+ * A {@link PDDocument} is not thread-safe, so a document is split into
+ * contiguous page ranges and every worker parses its own copy of the bytes.
+ * The request thread renders the first range with the document it already
+ * opened. When the pool queue is full the request thread renders the overflow
+ * ranges itself: that bounds the queue and pushes back on callers, but does not
+ * cap concurrency, which can reach the pool size plus the rendering request
+ * threads. Memory, not thread count, is what the budget below bounds.
+ *
+ * Pages render at the configured DPI, or — given a {@link Viewport} — at the
+ * smallest DPI that fills it. Either way no page exceeds
+ * {@code app.render.max-pixels}, so large-format sheets come out screen-sized.
+ *
+ * Memory is bounded twice: PDFBox parses under a {@link MemoryUsageSetting}
+ * ({@code main}, {@code mixed} or {@code temp-file}), and every render first
+ * takes its estimated raster bytes (stitched image included) from a node-wide
+ * budget, waiting while other renders hold it, and keeps them until the result
+ * is encoded. TIFF decoding shares the budget through {@link #withMemory}. A
+ * document that could never fit is downscaled or rejected, per
+ * {@code app.render.memory.oversize}.
+ */
+@Component
+public class PdfPageRenderer {
+
+    private static final Logger logger = LoggerFactory.getLogger(PdfPageRenderer.class);
+
+    @Value("${app.render.threads:0}")
+    private int threads;
+
+    @Value("${app.render.queue-capacity:64}")
+    private int queueCapacity;
+
+    @Value("${app.render.max-parallel-per-document:4}")
+    private int maxParallelPerDocument;
+
+    @Value("${app.render.dpi:150}")
+    private float dpi;
+
+    // Pixel budget per page; 0 disables the cap
+    @Value("${app.render.max-pixels:8000000}")
+    private long maxPixels;
+
+    // Bounds for viewport-sized rendering
+    @Value("${app.render.adaptive.min-dpi:48}")
+    private float minAdaptiveDpi;
+
+    @Value("${app.render.adaptive.max-dpi:300}")
+    private float maxAdaptiveDpi;
+
+    // ─── Memory ───
+
+    // PDFBox parse buffers: main (unbounded heap), mixed (heap up to max-main-bytes, then scratch file), temp-file
+    @Value("${app.render.memory.mode:main}")
+    private String memoryMode;
+
+    @Value("${app.render.memory.max-main-bytes:67108864}")
+    private long maxMainMemoryBytes;
+
+    @Value("${app.render.memory.temp-dir:}")
+    private String scratchDir;
+
+    // Raster bytes all renders may hold at once; 0 = a quarter of the max heap
+    @Value("${app.render.memory.budget-bytes:0}")
+    private long memoryBudgetBytes;
+
+    @Value("${app.render.memory.acquire-timeout-ms:30000}")
+    private long acquireTimeoutMs;
+
+    // What to do with a document larger than the whole budget: downscale | reject
+    @Value("${app.render.memory.oversize:downscale}")
+    private String oversizePolicy;
+
+    // Estimated rasters are accounted in KiB so the budget fits a Semaphore
+    private static final int PERMIT_BYTES = 1024;
+    // ImageType.RGB renders to TYPE_INT_RGB
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final MeterRegistry registry;
+    private ThreadPoolExecutor pool;
+    private MemoryUsageSetting memoryUsage;
+    private Semaphore renderMemory;
+    private int budgetPermits;
+
+    public PdfPageRenderer(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @PostConstruct
+    public void init() {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("pdf-render-");
+        threadFactory.setDaemon(true);
+        pool = new ThreadPoolExecutor(size, size, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+
+        memoryUsage = memoryUsageSetting();
+        long budget = memoryBudgetBytes > 0 ? memoryBudgetBytes : Runtime.getRuntime().maxMemory() / 4;
+        budgetPermits = (int) Math.min(Integer.MAX_VALUE, Math.max(1, budget / PERMIT_BYTES));
+        renderMemory = new Semaphore(budgetPermits, true);
+
+        Gauge.builder("viewer.render.queue", pool, p -> p.getQueue().size())
+                .description("Page ranges waiting for a render worker").register(registry);
+        Gauge.builder("viewer.render.active", pool, ThreadPoolExecutor::getActiveCount).register(registry);
+        Gauge.builder("viewer.render.memory.available", this, PdfPageRenderer::availableMemoryBytes)
+                .baseUnit("bytes").register(registry);
+        Gauge.builder("viewer.render.memory.waiting", renderMemory, Semaphore::getQueueLength)
+                .description("Renders waiting for room in the memory budget").register(registry);
+        logger.info("PDF render pool started: threads={}, dpi={}, maxPixels={}, memory={}, budget={} MB",
+                size, dpi, maxPixels, memoryMode, budget >> 20);
+    }
+
+    private MemoryUsageSetting memoryUsageSetting() {
+        MemoryUsageSetting setting;
+        switch (memoryMode.trim().toLowerCase(Locale.ROOT)) {
+            case "main":
+                setting = MemoryUsageSetting.setupMainMemoryOnly();
+                break;
+            case "mixed":
+                setting = MemoryUsageSetting.setupMixed(maxMainMemoryBytes);
+                break;
+            case "temp-file":
+                setting = MemoryUsageSetting.setupTempFileOnly();
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported app.render.memory.mode: " + memoryMode);
+        }
+        if (!scratchDir.isEmpty()) {
+            setting.setTempDir(new File(scratchDir));
+        }
+        return setting;
+    }
+
+    /**
+     * Raster bytes currently free in the render memory budget.
+     */
+    public long availableMemoryBytes() {
+        return (long) renderMemory.availablePermits() * PERMIT_BYTES;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Post-processes a page on the worker that rendered it, so the full-size
+     * image can be dropped as soon as the handler returns.
+     */
+    @FunctionalInterface
+    public interface PageHandler<T> {
+        T handle(int pageIndex, BufferedImage image) throws IOException;
+    }
+
+    /**
+     * Hands a raster to its consumer while the budget that covers it is still held.
+     */
+    @FunctionalInterface
+    public interface ImageHandler<T> {
+        T handle(BufferedImage image) throws IOException;
+    }
+
+    /**
+     * Work run under a reservation from the render memory budget.
+     */
+    @FunctionalInterface
+    public interface BudgetedWork<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Renders every page sized for {@code viewport} ({@code null} for the
+     * configured DPI), stitches them side by side and returns what
+     * {@code handler} makes of the stitched image. The budget is charged for
+     * all pages plus the stitched raster and held until the handler returns,
+     * which must not keep the image.
+     */
+    public <T> T renderStitched(byte[] pdf, Viewport viewport, ImageHandler<T> handler) throws IOException {
+        return render(pdf, viewport, true, (document, dpis, parallelism) -> handler.handle(
+                stitch(renderAll(pdf, document, dpis, parallelism, (pageIndex, image) -> image))));
+    }
+
+    /**
+     * Renders every page of {@code pdf} and returns the handler results in page order.
+     */
+    public <T> List<T> renderPages(byte[] pdf, PageHandler<T> handler) throws IOException {
+        return renderPages(pdf, null, handler);
+    }
+
+    /**
+     * Renders every page sized for {@code viewport} ({@code null} for the
+     * configured DPI) and returns the handler results in page order. The
+     * handler must not keep the image.
+     */
+    public <T> List<T> renderPages(byte[] pdf, Viewport viewport, PageHandler<T> handler) throws IOException {
+        return render(pdf, viewport, false,
+                (document, dpis, parallelism) -> renderAll(pdf, document, dpis, parallelism, handler));
+    }
+
+    // What runs once the document is planned and its raster bytes are reserved
+    @FunctionalInterface
+    private interface RenderJob<R> {
+        R run(PDDocument document, float[] dpis, int parallelism) throws IOException;
+    }
+
+    private <R> R render(byte[] pdf, Viewport viewport, boolean stitched, RenderJob<R> job) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf, "", null, null, memoryUsage)) {
+            int pageCount = document.getNumberOfPages();
+            if (pageCount == 0) {
+                throw new EmptyDocumentException("PDF has no pages");
+            }
+            int parallelism = Math.min(pageCount, Math.min(pool.getMaximumPoolSize(), maxParallelPerDocument));
+            float[] dpis = planDpi(document, viewport);
+
+            // Stitched pages all live until the stitched image is encoded; streamed
+            // ones only while their worker holds them
+            int permits = fitToBudget(document, dpis, stitched ? pageCount : parallelism, stitched);
+            acquire(permits);
+            try {
+                return job.run(document, dpis, parallelism);
+            } finally {
+                renderMemory.release(permits);
+            }
+        }
+    }
+
+    private <T> List<T> renderAll(byte[] pdf, PDDocument document, float[] dpis, int parallelism,
+            PageHandler<T> handler) throws IOException {
+        int pageCount = document.getNumberOfPages();
+        @SuppressWarnings("unchecked")
+        T[] results = (T[]) new Object[pageCount];
+
+        if (parallelism <= 1) {
+            renderRange(document, dpis, handler, results, 0, pageCount);
+            return Arrays.asList(results);
+        }
+
+        // Contiguous ranges keep each worker's copy warm on neighbouring pages
+        int chunk = (pageCount + parallelism - 1) / parallelism;
+        List<Future<?>> futures = new ArrayList<>(parallelism - 1);
+        try {
+            for (int from = chunk; from < pageCount; from += chunk) {
+                final int start = from;
+                final int end = Math.min(pageCount, from + chunk);
+                futures.add(pool.submit(() -> {
+                    try (PDDocument copy = PDDocument.load(pdf, "", null, null, memoryUsage)) {
+                        renderRange(copy, dpis, handler, results, start, end);
+                    }
+                    return null;
+                }));
+            }
+
+            renderRange(document, dpis, handler, results, 0, Math.min(chunk, pageCount));
+
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Rendering interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Page rendering failed", cause);
+        } finally {
+            for (Future<?> f : futures) {
+                f.cancel(true);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private <T> void renderRange(PDDocument document, float[] dpis, PageHandler<T> handler, T[] results,
+            int from, int to) throws IOException {
+        PDFRenderer renderer = new PDFRenderer(document);
+        for (int i = from; i < to; i++) {
+            results[i] = handler.handle(i, renderer.renderImageWithDPI(i, dpis[i], ImageType.RGB));
+        }
+    }
+
+    // ─── Memory budget ─────────────────────────────────────────────────────────
+
+    /**
+     * Runs {@code work} holding {@code bytes} of the render memory budget, for
+     * rasters decoded outside PDFBox (TIFF frames). Size {@code bytes} with
+     * {@link #budgetScale} first; the hold is capped at the whole budget.
+     */
+    public <T> T withMemory(long bytes, BudgetedWork<T> work) throws IOException {
+        int permits = Math.min(budgetPermits, permitsFor(bytes));
+        acquire(permits);
+        try {
+            return work.run();
+        } finally {
+            renderMemory.release(permits);
+        }
+    }
+
+    /**
+     * Linear scale, at most 1, that brings a raster estimate of {@code bytes}
+     * within the whole budget. Throws {@link DocumentTooLargeException} instead
+     * of scaling under the {@code reject} oversize policy.
+     */
+    public double budgetScale(long bytes) throws DocumentTooLargeException {
+        long budget = (long) budgetPermits * PERMIT_BYTES;
+        if (bytes <= budget) {
+            return 1.0;
+        }
+        if (!"downscale".equalsIgnoreCase(oversizePolicy)) {
+            throw new DocumentTooLargeException("Document needs ~" + (bytes >> 20)
+                    + " MB to render, over the " + (budget >> 20) + " MB budget");
+        }
+        // Raster size goes with the square of the scale
+        return Math.sqrt((double) budget / bytes) * 0.99;
+    }
+
+    /**
+     * Source subsampling step that holds a {@code width} x {@code height}
+     * raster to {@code app.render.max-pixels}; 1 when it already fits.
+     */
+    public int subsampling(long width, long height) {
+        long pixels = width * height;
+        if (maxPixels <= 0 || pixels <= maxPixels) {
+            return 1;
+        }
+        return (int) Math.ceil(Math.sqrt((double) pixels / maxPixels));
+    }
+
+    /**
+     * Permits for rendering with {@code dpis}, counting the {@code concurrent}
+     * largest pages and, if {@code stitched}, the image they are stitched into.
+     * Lowers {@code dpis} in place when the estimate exceeds the whole budget
+     * and the oversize policy allows it.
+     */
+    private int fitToBudget(PDDocument document, float[] dpis, int concurrent, boolean stitched)
+            throws IOException {
+        long bytes = estimateBytes(document, dpis, concurrent, stitched);
+        float scale = (float) budgetScale(bytes);
+        if (scale >= 1f) {
+            return permitsFor(bytes);
+        }
+        for (int i = 0; i < dpis.length; i++) {
+            dpis[i] *= scale;
+        }
+        long scaled = estimateBytes(document, dpis, concurrent, stitched);
+        logger.warn("Document needs ~{} MB to render, downscaled by {} to ~{} MB", bytes >> 20, scale,
+                scaled >> 20);
+        return Math.min(budgetPermits, permitsFor(scaled));
+    }
+
+    private long estimateBytes(PDDocument document, float[] dpis, int concurrent, boolean stitched) {
+        long[] pages = new long[dpis.length];
+        long rowWidth = 0;
+        long rowHeight = 0;
+        for (int i = 0; i < dpis.length; i++) {
+            PDPage page = document.getPage(i);
+            PDRectangle box = page.getCropBox();
+            long width = (long) Math.ceil(box.getWidth() * dpis[i] / 72.0);
+            long height = (long) Math.ceil(box.getHeight() * dpis[i] / 72.0);
+            pages[i] = width * height * BYTES_PER_PIXEL;
+            boolean quarterTurn = page.getRotation() % 180 != 0;
+            rowWidth += quarterTurn ? height : width;
+            rowHeight = Math.max(rowHeight, quarterTurn ? width : height);
+        }
+        Arrays.sort(pages);
+        long total = stitched ? rowWidth * rowHeight * BYTES_PER_PIXEL : 0;
+        for (int i = pages.length - 1; i >= Math.max(0, pages.length - concurrent); i--) {
+            total += pages[i];
+        }
+        return total;
+    }
+
+    private static int permitsFor(long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (bytes + PERMIT_BYTES - 1) / PERMIT_BYTES));
+    }
+
+    private void acquire(int permits) throws IOException {
+        try {
+            if (!renderMemory.tryAcquire(permits, acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new RejectedExecutionException("Render memory budget exhausted");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for render memory", e);
+        }
+    }
+
+    /**
+     * Pages side by side on black, top-aligned.
+     */
+    static BufferedImage stitch(List<BufferedImage> images) {
+        int totalWidth = 0;
+        int maxHeight = 0;
+
+        for (BufferedImage img : images) {
+            totalWidth += img.getWidth();
+            maxHeight = Math.max(maxHeight, img.getHeight());
+        }
+
+        BufferedImage combined = new BufferedImage(totalWidth, maxHeight, BufferedImage.TYPE_INT_RGB);
+        java.awt.Graphics2D g = combined.createGraphics();
+        g.setBackground(java.awt.Color.BLACK);
+        g.clearRect(0, 0, totalWidth, maxHeight);
+
+        int currentX = 0;
+        for (BufferedImage img : images) {
+            g.drawImage(img, currentX, 0, null);
+            currentX += img.getWidth();
+        }
+        g.dispose();
+        return combined;
+    }
+
+    // ─── Resolution ────────────────────────────────────────────────────────────
+
+    /**
+     * DPI for every page, from the page sizes alone (no content is parsed).
+     */
+    float[] planDpi(PDDocument document, Viewport viewport) {
+        int pageCount = document.getNumberOfPages();
+        float[] widths = new float[pageCount];
+        float[] heights = new float[pageCount];
+        float rowWidth = 0;
+        float rowHeight = 0;
+        for (int i = 0; i < pageCount; i++) {
+            PDPage page = document.getPage(i);
+            PDRectangle box = page.getCropBox();
+            boolean quarterTurn = page.getRotation() % 180 != 0;
+            widths[i] = Math.max(1f, quarterTurn ? box.getHeight() : box.getWidth());
+            heights[i] = Math.max(1f, quarterTurn ? box.getWidth() : box.getHeight());
+            rowWidth += widths[i];
+            rowHeight = Math.max(rowHeight, heights[i]);
+        }
+
+        // A row is sized as a whole so the stitched pages keep one scale
+        float rowDpi = 0;
+        if (viewport != null && viewport.isSideBySide()) {
+            rowDpi = clampAdaptive(Math.min(72f * viewport.getWidth() / rowWidth,
+                    72f * viewport.getHeight() / rowHeight));
+        }
+
+        float[] dpis = new float[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            float pageDpi;
+            if (viewport == null) {
+                pageDpi = dpi;
+            } else if (viewport.isSideBySide()) {
+                pageDpi = rowDpi;
+            } else {
+                pageDpi = clampAdaptive(72f * viewport.getWidth() / widths[i]);
+            }
+            dpis[i] = capToBudget(pageDpi, widths[i], heights[i]);
+        }
+        return dpis;
+    }
+
+    private float clampAdaptive(float fillDpi) {
+        return Math.max(minAdaptiveDpi, Math.min(maxAdaptiveDpi, fillDpi));
+    }
+
+    // Scales both sides down together until the page fits the pixel budget
+    private float capToBudget(float pageDpi, float widthPt, float heightPt) {
+        double pixels = (widthPt * pageDpi / 72.0) * (heightPt * pageDpi / 72.0);
+        if (maxPixels <= 0 || pixels <= maxPixels) {
+            return pageDpi;
+        }
+        return (float) (pageDpi * Math.sqrt(maxPixels / pixels));
+    }
+}
@@ -0,0 +1,139 @@
+package com.nbk;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPassword;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Token store shared by all viewer nodes through Redis, so the data fetch
+ * does not have to reach the node that rendered the page.
+ *
+ * Each token is one key holding {@code expiryMs | prefixLen | prefix | ciphertext}
+ * with a matching server-side TTL. {@code GETDEL} (Redis 6.2+) takes it
+ * atomically, so a token is served at most once across the cluster.
+ */
+@Component
+@ConditionalOnProperty(name = "app.token-store.type", havingValue = "redis")
+public class RedisTokenStore implements TokenStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisTokenStore.class);
+
+    @Value("${app.token-store.redis.host:localhost}")
+    private String host;
+
+    @Value("${app.token-store.redis.port:6379}")
+    private int port;
+
+    @Value("${app.token-store.redis.password:}")
+    private String password;
+
+    @Value("${app.token-store.redis.database:0}")
+    private int database;
+
+    @Value("${app.token-store.redis.timeout-ms:2000}")
+    private long timeoutMs;
+
+    @Value("${app.token-store.redis.key-prefix:viewer:token:}")
+    private String keyPrefix;
+
+    private final PayloadStore payloadStore;
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong missed = new AtomicLong();
+
+    private LettuceConnectionFactory connectionFactory;
+
+    public RedisTokenStore(PayloadStore payloadStore, MeterRegistry registry) {
+        this.payloadStore = payloadStore;
+        FunctionCounter.builder("viewer.tokens.removals", consumed, AtomicLong::get).tag("cause", "consumed")
+                .register(registry);
+        FunctionCounter.builder("viewer.tokens.misses", missed, AtomicLong::get)
+                .description("Token lookups that found nothing, already used or expired").register(registry);
+    }
+
+    // ─── Lifecycle ──────────────────────────────────────────────────────────────
+
+    @PostConstruct
+    public void init() {
+        RedisStandaloneConfiguration server = new RedisStandaloneConfiguration(host, port);
+        server.setDatabase(database);
+        if (!password.isEmpty()) {
+            server.setPassword(RedisPassword.of(password));
+        }
+        LettuceClientConfiguration client = LettuceClientConfiguration.builder()
+                .commandTimeout(Duration.ofMillis(timeoutMs))
+                .build();
+
+        // One shared native connection; Redis commands are pipelined over it
+        connectionFactory = new LettuceConnectionFactory(server, client);
+        connectionFactory.afterPropertiesSet();
+        logger.info("Redis token store: {}:{}/{}", host, port, database);
+    }
+
+    @PreDestroy
+    public void close() {
+        connectionFactory.destroy();
+    }
+
+    // ─── API ────────────────────────────────────────────────────────────────────
+
+    @Override
+    public void put(String key, byte[] ciphertext, byte[] prefix, long expiryMs) {
+        long ttlMs = Math.max(1, expiryMs - System.currentTimeMillis());
+        ByteBuffer value = ByteBuffer.allocate(8 + 1 + prefix.length + ciphertext.length);
+        value.putLong(expiryMs).put((byte) prefix.length).put(prefix).put(ciphertext);
+
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.stringCommands().set(redisKey(key), value.array(),
+                    Expiration.milliseconds(ttlMs), SetOption.upsert());
+        }
+    }
+
+    @Override
+    public TokenEntry take(String key) {
+        byte[] value;
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            value = connection.stringCommands().getDel(redisKey(key));
+        }
+        if (value == null) {
+            missed.incrementAndGet();
+            return null;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(value);
+        long expiryMs = in.getLong();
+        byte[] prefix = new byte[in.get() & 0xFF];
+        in.get(prefix);
+        TokenEntry entry = new TokenEntry(payloadStore.wrap(value, in.position(), in.remaining()), prefix, expiryMs);
+        if (entry.isExpired()) {
+            entry.getPayload().release();
+            missed.incrementAndGet();
+            return null;
+        }
+        consumed.incrementAndGet();
+        return entry;
+    }
+
+    private byte[] redisKey(String key) {
+        return (keyPrefix + key).getBytes(StandardCharsets.UTF_8);
+    }
+}
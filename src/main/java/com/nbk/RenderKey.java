@@ -0,0 +1,46 @@
+package com.nbk;
+
+import java.util.Objects;
+
+/**
+ * Identity of one rendering: the upstream document plus the viewport it was
+ * sized for ({@code null} for the fixed configured DPI).
+ */
+public final class RenderKey {
+
+    private final DocumentKey document;
+    private final Viewport viewport;
+
+    public RenderKey(DocumentKey document, Viewport viewport) {
+        this.document = document;
+        this.viewport = viewport;
+    }
+
+    public DocumentKey getDocument() {
+        return document;
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof RenderKey))
+            return false;
+        RenderKey other = (RenderKey) o;
+        return Objects.equals(document, other.document) && Objects.equals(viewport, other.viewport);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(document, viewport);
+    }
+
+    @Override
+    public String toString() {
+        return document + (viewport != null ? ", Viewport=" + viewport : "");
+    }
+}
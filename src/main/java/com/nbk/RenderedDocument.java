@@ -0,0 +1,54 @@
+package com.nbk;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A document after rendering: the encoded image bytes of each page, ready to be
+ * encrypted for a viewer. Instances are shared between requests and must not
+ * be modified.
+ */
+public final class RenderedDocument {
+
+    private final String entryId;
+    private final List<byte[]> pages;
+    private final String mimeType;
+    private final long sizeBytes;
+
+    public RenderedDocument(String entryId, List<byte[]> pages, String mimeType) {
+        this.entryId = entryId;
+        this.pages = Collections.unmodifiableList(pages);
+        this.mimeType = mimeType;
+        long size = 0;
+        for (byte[] page : pages) {
+            size += page.length;
+        }
+        this.sizeBytes = size;
+    }
+
+    /**
+     * Laserfiche EntryID of the source document, if the upstream reported one.
+     */
+    public String getEntryId() {
+        return entryId;
+    }
+
+    public List<byte[]> getPages() {
+        return pages;
+    }
+
+    /**
+     * MIME type of every page's bytes.
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+}
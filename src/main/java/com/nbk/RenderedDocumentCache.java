@@ -0,0 +1,136 @@
+package com.nbk;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Bounded LRU cache of rendered documents keyed by upstream document identity
+ * and viewport bucket, so repeat views of the same case skip both the
+ * Laserfiche call and rendering.
+ *
+ * Entries are weighed by their encoded bytes and expire after a fixed TTL.
+ * Only the rendered plaintext is cached — every view still gets its own AES
+ * key and one-time token. Set {@code app.cache.max-bytes=0} to disable.
+ */
+@Component
+public class RenderedDocumentCache {
+
+    @Value("${app.cache.max-bytes:268435456}")
+    private long maxBytes;
+
+    @Value("${app.cache.ttl-ms:300000}")
+    private long ttlMs;
+
+    // Access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<RenderKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong sizeEvictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    private static class Entry {
+        final RenderedDocument document;
+        final long expiryMs;
+
+        Entry(RenderedDocument document, long expiryMs) {
+            this.document = document;
+            this.expiryMs = expiryMs;
+        }
+    }
+
+    public RenderedDocumentCache(MeterRegistry registry) {
+        FunctionCounter.builder("viewer.cache.gets", hits, AtomicLong::get).tag("result", "hit")
+                .description("Rendered-document cache lookups").register(registry);
+        FunctionCounter.builder("viewer.cache.gets", misses, AtomicLong::get).tag("result", "miss")
+                .description("Rendered-document cache lookups").register(registry);
+        FunctionCounter.builder("viewer.cache.evictions", sizeEvictions, AtomicLong::get).tag("cause", "size")
+                .register(registry);
+        FunctionCounter.builder("viewer.cache.evictions", expirations, AtomicLong::get).tag("cause", "expired")
+                .register(registry);
+        Gauge.builder("viewer.cache.entries", this, RenderedDocumentCache::size).register(registry);
+        Gauge.builder("viewer.cache.bytes", this, RenderedDocumentCache::bytes).baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Returns the cached document, or {@code null} on a miss or expired entry.
+     */
+    public RenderedDocument get(RenderKey key) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiryMs < System.currentTimeMillis()) {
+                remove(key, entry);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.document;
+        }
+    }
+
+    public void put(RenderKey key, RenderedDocument document) {
+        if (maxBytes <= 0 || document.getSizeBytes() > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            Entry previous = entries.put(key, new Entry(document, System.currentTimeMillis() + ttlMs));
+            if (previous != null) {
+                totalBytes -= previous.document.getSizeBytes();
+            }
+            totalBytes += document.getSizeBytes();
+
+            // Expired entries go first, then least recently used until under budget
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<RenderKey, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<RenderKey, Entry> e = it.next();
+                if (e.getValue().expiryMs < now) {
+                    it.remove();
+                    totalBytes -= e.getValue().document.getSizeBytes();
+                    expirations.incrementAndGet();
+                }
+            }
+            it = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Map.Entry<RenderKey, Entry> e = it.next();
+                if (e.getKey().equals(key)) {
+                    continue;
+                }
+                it.remove();
+                totalBytes -= e.getValue().document.getSizeBytes();
+                sizeEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return totalBytes;
+    }
+
+    private void remove(RenderKey key, Entry entry) {
+        entries.remove(key);
+        totalBytes -= entry.document.getSizeBytes();
+    }
+}
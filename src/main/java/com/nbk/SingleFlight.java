@@ -0,0 +1,51 @@
+package com.nbk;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key: the first caller starts the load,
+ * everyone arriving while it is in flight shares its result. The key is
+ * released as soon as the load completes, so later callers start afresh.
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> loader) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+        try {
+            loader.get().whenComplete((value, ex) -> {
+                // Release before completing so callbacks never see a finished flight
+                inFlight.remove(key, mine);
+                if (ex != null) {
+                    mine.completeExceptionally(ex);
+                } else {
+                    mine.complete(value);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(e);
+        }
+        return mine;
+    }
+
+    /** Loads currently in flight. */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /** Callers that joined an existing load instead of starting their own. */
+    public long coalescedCount() {
+        return coalesced.get();
+    }
+}
@@ -0,0 +1,36 @@
+package com.nbk;
+
+/**
+ * What a one-time page token unlocks: the stored ciphertext, the bytes sent
+ * ahead of it (the CBC IV, or the segment header in GCM mode) and when the
+ * token stops working. The viewer's AES key is
+ * only ever sent in the page itself and is not kept here.
+ */
+public final class TokenEntry {
+
+    private final PayloadStore.Payload payload;
+    private final byte[] prefix;
+    private final long expiryMs;
+
+    public TokenEntry(PayloadStore.Payload payload, byte[] prefix, long expiryMs) {
+        this.payload = payload;
+        this.prefix = prefix;
+        this.expiryMs = expiryMs;
+    }
+
+    public PayloadStore.Payload getPayload() {
+        return payload;
+    }
+
+    public byte[] getPrefix() {
+        return prefix;
+    }
+
+    public long getExpiryMs() {
+        return expiryMs;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() > expiryMs;
+    }
+}
@@ -0,0 +1,23 @@
+package com.nbk;
+
+/**
+ * Storage for one-time page tokens.
+ *
+ * {@code app.token-store.type} selects the implementation: {@code memory}
+ * keeps tokens on the issuing node, {@code redis} shares them so the data
+ * fetch may land on any node behind the load balancer.
+ */
+public interface TokenStore {
+
+    /**
+     * Issues {@code key} for one encrypted page; it can be taken once until {@code expiryMs}.
+     * {@code prefix} is sent ahead of the ciphertext.
+     */
+    void put(String key, byte[] ciphertext, byte[] prefix, long expiryMs);
+
+    /**
+     * Atomically removes and returns the entry for {@code key}, or {@code null}
+     * if there is none or it has expired.
+     */
+    TokenEntry take(String key);
+}
@@ -0,0 +1,23 @@
+package com.nbk;
+
+/**
+ * A document as returned by Laserfiche: its decoded bytes and EntryID.
+ */
+public final class UpstreamDocument {
+
+    private final String entryId;
+    private final byte[] bytes;
+
+    public UpstreamDocument(String entryId, byte[] bytes) {
+        this.entryId = entryId;
+        this.bytes = bytes;
+    }
+
+    public String getEntryId() {
+        return entryId;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+}
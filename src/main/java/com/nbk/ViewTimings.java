@@ -0,0 +1,65 @@
+package com.nbk;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Wall-clock time spent in each stage of one view, in the order the stages
+ * first ran. Stages may run on different threads. Every measurement is also
+ * passed on to an optional listener, e.g. {@link ViewerMetrics}.
+ */
+public final class ViewTimings {
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+    private final ObjLongConsumer<String> listener;
+
+    public ViewTimings() {
+        this(null);
+    }
+
+    public ViewTimings(ObjLongConsumer<String> listener) {
+        this.listener = listener;
+    }
+
+    public void record(String stage, long nanos) {
+        synchronized (this) {
+            stageNanos.merge(stage, nanos, Long::sum);
+        }
+        if (listener != null) {
+            listener.accept(stage, nanos);
+        }
+    }
+
+    /**
+     * Adds stages measured by another view's {@link ViewTimings}, e.g. a shared
+     * document load, without passing them to the listener a second time.
+     */
+    public void merge(Map<String, Long> stages) {
+        synchronized (this) {
+            for (Map.Entry<String, Long> stage : stages.entrySet()) {
+                stageNanos.merge(stage.getKey(), stage.getValue(), Long::sum);
+            }
+        }
+    }
+
+    public <T> T time(String stage, Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    public synchronized Map<String, Long> stages() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(stageNanos));
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+}
@@ -0,0 +1,118 @@
+package com.nbk;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Stage executors for the viewer pipeline.
+ *
+ * In async mode the Laserfiche call and the render each run on their own
+ * bounded pool, so a slow upstream holds upstream workers rather than servlet
+ * threads. A full queue rejects the task; the controller turns that into a 503
+ * instead of letting work pile up. With async mode off both stages run inline
+ * on the request thread, exactly as before.
+ */
+@Component
+public class ViewerExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(ViewerExecutors.class);
+
+    private static final Executor DIRECT = Runnable::run;
+
+    @Value("${app.viewer.async.enabled:false}")
+    private boolean asyncEnabled;
+
+    @Value("${app.viewer.async.upstream-threads:32}")
+    private int upstreamThreads;
+
+    @Value("${app.viewer.async.upstream-queue:100}")
+    private int upstreamQueue;
+
+    @Value("${app.viewer.async.render-threads:0}")
+    private int renderThreads;
+
+    @Value("${app.viewer.async.render-queue:50}")
+    private int renderQueue;
+
+    @Value("${app.viewer.async.timeout-ms:60000}")
+    private long timeoutMs;
+
+    private final MeterRegistry registry;
+    private ThreadPoolExecutor upstreamPool;
+    private ThreadPoolExecutor renderPool;
+
+    public ViewerExecutors(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!asyncEnabled) {
+            return;
+        }
+        int renderSize = renderThreads > 0 ? renderThreads : Runtime.getRuntime().availableProcessors();
+        upstreamPool = newPool("viewer-upstream-", upstreamThreads, upstreamQueue);
+        renderPool = newPool("viewer-render-", renderSize, renderQueue);
+        monitor(upstreamPool, "upstream");
+        monitor(renderPool, "render");
+        logger.info("Async viewer enabled: upstreamThreads={}, renderThreads={}", upstreamThreads, renderSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (upstreamPool != null) {
+            upstreamPool.shutdownNow();
+            renderPool.shutdownNow();
+        }
+    }
+
+    public boolean isAsync() {
+        return asyncEnabled;
+    }
+
+    /**
+     * How long a view may wait for its document before the client gets a 503:
+     * an async view, or in sync mode one that joined another request's load.
+     */
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public Executor upstream() {
+        return upstreamPool != null ? upstreamPool : DIRECT;
+    }
+
+    public Executor render() {
+        return renderPool != null ? renderPool : DIRECT;
+    }
+
+    private void monitor(ThreadPoolExecutor pool, String stage) {
+        Gauge.builder("viewer.stage.queue", pool, p -> p.getQueue().size()).tag("stage", stage)
+                .description("Tasks waiting for a stage worker").register(registry);
+        Gauge.builder("viewer.stage.active", pool, ThreadPoolExecutor::getActiveCount).tag("stage", stage)
+                .register(registry);
+    }
+
+    private static ThreadPoolExecutor newPool(String prefix, int threads, int queue) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queue)), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
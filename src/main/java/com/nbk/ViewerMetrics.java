@@ -0,0 +1,105 @@
+package com.nbk;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Latency of the viewer pipeline, per stage and end to end.
+ *
+ * {@code viewer.stage.duration{stage}} covers: {@code validate} (RSA link
+ * decrypt), {@code load} (cache hit, or the upstream fetch and render this
+ * request waited for), and within a load {@code upstream} (Laserfiche call up
+ * to the response headers), {@code decode} (body transfer, JSON parse and
+ * Base64 decode), {@code render} (PDF or TIFF to encoded pages, wall time) and
+ * {@code encode} (one page image, part of render); then {@code encrypt} (AES,
+ * all pages) and {@code store} (one-time token store, all pages).
+ * {@code viewer.request.duration{outcome}} is the whole view. All are
+ * published with percentile histograms.
+ */
+@Component
+public class ViewerMetrics {
+
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String, Timer> stageTimers = new ConcurrentHashMap<>();
+    private final Timer succeeded;
+    private final Timer failed;
+
+    public ViewerMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        succeeded = requestTimer("success");
+        failed = requestTimer("failed");
+    }
+
+    /**
+     * Timings for a new view, feeding every stage into its timer as it is recorded.
+     */
+    public ViewTimings start() {
+        return new ViewTimings(this::recordStage);
+    }
+
+    public void recordStage(String stage, long nanos) {
+        stageTimers.computeIfAbsent(stage, name -> Timer.builder("viewer.stage.duration")
+                .description("Time spent in one stage of the viewer pipeline")
+                .tag("stage", name)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(60))
+                .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordView(ViewTimings timings, boolean success) {
+        (success ? succeeded : failed).record(timings.elapsedNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Publishes in-flight and coalesced counts of a {@link SingleFlight}.
+     */
+    public void monitor(SingleFlight<?, ?> flights, String name) {
+        Gauge.builder("viewer.flights.inflight", flights, SingleFlight::inFlight).tag("name", name)
+                .description("Loads in flight that concurrent requests can join").register(registry);
+        FunctionCounter.builder("viewer.flights.coalesced", flights, SingleFlight::coalescedCount)
+                .tag("name", name).description("Requests that joined a load already in flight")
+                .register(registry);
+    }
+
+    /**
+     * {@code Server-Timing} header value for the stages so far plus the total.
+     */
+    public static String serverTiming(ViewTimings timings) {
+        StringBuilder header = new StringBuilder();
+        for (Map.Entry<String, Long> stage : timings.stages().entrySet()) {
+            appendTiming(header, stage.getKey(), stage.getValue());
+        }
+        appendTiming(header, "total", timings.elapsedNanos());
+        return header.toString();
+    }
+
+    private static void appendTiming(StringBuilder header, String name, long nanos) {
+        if (header.length() > 0) {
+            header.append(", ");
+        }
+        header.append(name).append(";dur=").append(String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0));
+    }
+
+    private Timer requestTimer(String outcome) {
+        return Timer.builder("viewer.request.duration")
+                .description("Time to serve the viewer page")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(60))
+                .register(registry);
+    }
+}
@@ -0,0 +1,88 @@
+package com.nbk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+
+/**
+ * The secure viewer page, compiled once from {@code viewer/viewer.html} and
+ * {@code viewer/viewer.js} into an {@link HtmlTemplate}; a render only fills
+ * in the one-time token, key and page metadata.
+ *
+ * With {@code app.viewer.external-script} the script is not inlined but served
+ * from {@link #SCRIPT_PATH} under a content-hash version, so browsers cache it
+ * and the page's CSP no longer needs {@code 'unsafe-inline'} for scripts.
+ */
+@Component
+public class ViewerPage {
+
+    private static final Logger logger = LoggerFactory.getLogger(ViewerPage.class);
+
+    public static final String SCRIPT_PATH = "/viewer/viewer.js";
+
+    @Value("${app.viewer.external-script:false}")
+    private boolean externalScript;
+
+    private HtmlTemplate template;
+    private byte[] script;
+    private String scriptVersion;
+
+    @PostConstruct
+    public void init() throws IOException {
+        String js = readResource("/viewer/viewer.js");
+        script = js.getBytes(StandardCharsets.UTF_8);
+        scriptVersion = DigestUtils.md5DigestAsHex(script).substring(0, 16);
+        if (!externalScript && js.toLowerCase(Locale.ROOT).contains("</script")) {
+            throw new IllegalStateException("viewer.js cannot be inlined: it contains </script");
+        }
+
+        Map<String, String> constants = new HashMap<>();
+        constants.put("SCRIPT_SRC", externalScript ? " src=\"" + SCRIPT_PATH + "?v=" + scriptVersion + "\"" : "");
+        constants.put("SCRIPT_BODY", externalScript ? "" : "\n" + js + "  ");
+        template = HtmlTemplate.compile(readResource("/viewer/viewer.html"), constants,
+                "OTP", "KEY_B64", "PAGE_COUNT", "CIPHER", "MIME");
+        logger.info("Viewer page: script={}", externalScript ? SCRIPT_PATH + "?v=" + scriptVersion : "inline");
+    }
+
+    public byte[] render(String otp, String keyB64, int pageCount, String cipher, String mimeType) {
+        return template.render(otp, keyB64, Integer.toString(pageCount), cipher, mimeType);
+    }
+
+    public String getContentSecurityPolicy() {
+        return "default-src 'self'; script-src " + (externalScript ? "'self'" : "'unsafe-inline'")
+                + "; img-src 'none'; connect-src 'self'; style-src 'unsafe-inline';";
+    }
+
+    public boolean isExternalScript() {
+        return externalScript;
+    }
+
+    public byte[] getScript() {
+        return script;
+    }
+
+    public String getScriptVersion() {
+        return scriptVersion;
+    }
+
+    private static String readResource(String path) throws IOException {
+        try (InputStream in = ViewerPage.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException(path + " missing from the classpath");
+            }
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.nbk;
+
+import java.util.Objects;
+
+/**
+ * Device-pixel area a rendered document has to fill in the viewer.
+ *
+ * Sizes are rounded up to {@link #STEP} pixels, so clients with nearly the
+ * same window share one rendering (and one cache entry).
+ */
+public final class Viewport {
+
+    static final int STEP = 128;
+    private static final int MAX_PIXELS_PER_SIDE = 16384;
+
+    private final int width;
+    // 0 when the viewer scrolls vertically and only the width has to fit
+    private final int height;
+    // Stitched view: all pages in one row, sharing the width
+    private final boolean sideBySide;
+
+    private Viewport(int width, int height, boolean sideBySide) {
+        this.width = width;
+        this.height = height;
+        this.sideBySide = sideBySide;
+    }
+
+    /**
+     * Pages stacked vertically, each as wide as {@code width} device pixels.
+     */
+    public static Viewport column(int width) {
+        return new Viewport(bucket(width), 0, false);
+    }
+
+    /**
+     * All pages in one row, fitted together inside {@code width} x {@code height}.
+     */
+    public static Viewport row(int width, int height) {
+        return new Viewport(bucket(width), bucket(height), true);
+    }
+
+    private static int bucket(int pixels) {
+        int clamped = Math.max(1, Math.min(MAX_PIXELS_PER_SIDE, pixels));
+        return (clamped + STEP - 1) / STEP * STEP;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isSideBySide() {
+        return sideBySide;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Viewport))
+            return false;
+        Viewport other = (Viewport) o;
+        return width == other.width && height == other.height && sideBySide == other.sideBySide;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(width, height, sideBySide);
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + (height > 0 ? String.valueOf(height) : "*") + (sideBySide ? " row" : " column");
+    }
+}
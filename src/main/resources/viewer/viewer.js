@@ -0,0 +1,192 @@
+(function() {
+  'use strict';
+
+  // Inline or loaded from /viewer/viewer.js, this is the <script> carrying the constants
+  var script = document.currentScript;
+
+  // Block key shortcuts
+  document.addEventListener('keydown', function(e) {
+    var blocked =
+      e.key === 'F12' ||
+      e.key === 'PrintScreen' ||
+      (e.ctrlKey && ['s','p','u','a','c','x'].indexOf(e.key.toLowerCase()) !== -1) ||
+      (e.ctrlKey && e.shiftKey && ['i','j','c'].indexOf(e.key.toLowerCase()) !== -1) ||
+      (e.metaKey && ['s','p','u'].indexOf(e.key.toLowerCase()) !== -1);
+    if (blocked) { e.preventDefault(); e.stopPropagation(); }
+  }, true);
+
+  // Block right-click, dragging and text selection everywhere; registered here
+  // rather than as inline handlers, which a script-src 'self' CSP refuses to run
+  ['contextmenu', 'dragstart', 'selectstart'].forEach(function(type) {
+    document.addEventListener(type, function(e) { e.preventDefault(); }, true);
+  });
+
+  // Aggressive Anti-DevTools heuristics
+  var _w = window.outerWidth, _h = window.outerHeight;
+  function destroyContent() {
+    document.body.innerHTML = '<h1 style="color:red; text-align:center; margin-top:50px; font-family:sans-serif;">Security Violation: Inspection Detected</h1>';
+    if (window.stop) window.stop();
+  }
+
+  // 1. Check for window resizing (docked devtools)
+  setInterval(function() {
+    if (Math.abs(window.outerWidth - _w) > 160 || Math.abs(window.outerHeight - _h) > 160) {
+      destroyContent();
+    }
+  }, 500);
+
+  // Crypto constants injected by the server as attributes of this script
+  // element; the one-time values are removed from the DOM once read
+  var OTP        = script.getAttribute('data-otp');
+  var KEY_B64    = script.getAttribute('data-key');
+  var PAGE_COUNT = parseInt(script.getAttribute('data-pages'), 10);
+  var CIPHER     = script.getAttribute('data-cipher');
+  var MIME       = script.getAttribute('data-mime');
+  ['data-otp', 'data-key'].forEach(function(a) { script.removeAttribute(a); });
+
+  function b64ToArr(b64) {
+    var bin = atob(b64), arr = new Uint8Array(bin.length);
+    for (var i = 0; i < bin.length; i++) arr[i] = bin.charCodeAt(i);
+    return arr;
+  }
+
+  async function fetchPage(page) {
+    var resp = await fetch('/api/image/data?token=' + encodeURIComponent(OTP) + '&page=' + page, {
+      credentials: 'same-origin',
+      cache: 'no-store'
+    });
+    if (!resp.ok) throw new Error('Access denied (' + resp.status + ')');
+    return resp;
+  }
+
+  // CBC: one blob, IV (first 16 bytes) then ciphertext
+  async function readBlob(key, resp) {
+    var payload = new Uint8Array(await resp.arrayBuffer());
+    return [await crypto.subtle.decrypt(
+      { name: 'AES-CBC', iv: payload.subarray(0, 16) }, key, payload.subarray(16))];
+  }
+
+  // GCM chunk i: nonce = base nonce XOR i (last 4 bytes), AAD = i | final flag
+  function chunkParams(base, i, last) {
+    var nonce = base.slice(0);
+    var aad = new Uint8Array([i >>> 24, (i >>> 16) & 255, (i >>> 8) & 255, i & 255, last ? 1 : 0]);
+    for (var b = 0; b < 4; b++) nonce[8 + b] ^= aad[b];
+    return { name: 'AES-GCM', iv: nonce, additionalData: aad, tagLength: 128 };
+  }
+
+  function concat(a, b) {
+    if (!a.length) return b;
+    var c = new Uint8Array(a.length + b.length);
+    c.set(a); c.set(b, a.length);
+    return c;
+  }
+
+  // GCM: header, then chunks decrypted as soon as each one has arrived
+  async function readSegmented(key, resp, onProgress) {
+    var reader = resp.body && resp.body.getReader ? resp.body.getReader() : {
+      used: false,
+      read: async function() {
+        if (this.used) return { done: true };
+        this.used = true;
+        return { done: false, value: new Uint8Array(await resp.arrayBuffer()) };
+      }
+    };
+    var total = +resp.headers.get('Content-Length') || 0, received = 0;
+    var buf = new Uint8Array(0), head = null, index = 0, count = 0, parts = [];
+    for (;;) {
+      var r = await reader.read();
+      if (r.value) {
+        buf = concat(buf, r.value);
+        received += r.value.length;
+        if (onProgress && total) onProgress(received / total);
+      }
+      if (!head && buf.length >= 25) {
+        var dv = new DataView(buf.buffer, buf.byteOffset, 25);
+        if (String.fromCharCode(buf[0], buf[1], buf[2], buf[3]) !== 'NBKS' || buf[4] !== 1) {
+          throw new Error('Unsupported payload');
+        }
+        head = { chunk: dv.getUint32(5), length: dv.getUint32(9), nonce: buf.slice(13, 25) };
+        count = Math.max(1, Math.ceil(head.length / head.chunk));
+        buf = buf.subarray(25);
+      }
+      while (head && index < count) {
+        var last = index === count - 1;
+        var need = (last ? head.length - index * head.chunk : head.chunk) + 16;
+        if (buf.length < need) break;
+        parts.push(crypto.subtle.decrypt(chunkParams(head.nonce, index, last), key, buf.subarray(0, need)));
+        buf = buf.subarray(need);
+        index++;
+      }
+      if (r.done) break;
+    }
+    if (!head || index !== count || buf.length) throw new Error('Truncated payload');
+    return Promise.all(parts);
+  }
+
+  function protect(canvas) {
+    // Prevent canvas right-click save
+    canvas.addEventListener('contextmenu', function(e) { e.preventDefault(); }, true);
+
+    // Protect the pixel data — override toDataURL and toBlob
+    canvas.toDataURL = function() { return ''; };
+    canvas.toBlob    = function() {};
+  }
+
+  async function loadImage() {
+    var status = document.getElementById('status');
+    try {
+      // Import AES key once for all pages
+      var rawKey = b64ToArr(KEY_B64);
+      var cryptoKey = await crypto.subtle.importKey(
+        'raw', rawKey, { name: CIPHER }, false, ['decrypt']
+      );
+
+      // Wipe key references from memory (best-effort)
+      rawKey.fill(0);
+      KEY_B64 = null;
+
+      var container = document.getElementById('pages');
+      if (PAGE_COUNT > 1) document.body.style.alignItems = 'flex-start';
+
+      for (var page = 0; page < PAGE_COUNT; page++) {
+        var resp = await fetchPage(page);
+
+        // Decrypt (GCM overlaps decryption with the download)
+        var decrypted = CIPHER === 'AES-GCM'
+          ? await readSegmented(cryptoKey, resp, page === 0 ? function(f) {
+              status.textContent = 'Loading secure document… ' + Math.floor(f * 100) + '%';
+            } : null)
+          : await readBlob(cryptoKey, resp);
+
+        // Paint to canvas
+        var blob = new Blob(decrypted, { type: MIME });
+        var bitmap = await createImageBitmap(blob);
+        var canvas = document.getElementById('c');
+        if (PAGE_COUNT > 1) {
+          if (page > 0) {
+            canvas = document.createElement('canvas');
+            container.appendChild(canvas);
+          }
+          canvas.className = 'pg';
+        }
+        canvas.width  = bitmap.width;
+        canvas.height = bitmap.height;
+        var ctx = canvas.getContext('2d');
+        ctx.drawImage(bitmap, 0, 0);
+        bitmap.close();
+        protect(canvas);
+
+        // First page is up — remove status message
+        if (page === 0) status.style.display = 'none';
+      }
+      OTP = null;
+
+    } catch (err) {
+      OTP = null;
+      status.style.display = '';
+      status.textContent = 'Unable to load document: ' + err.message;
+    }
+  }
+
+  loadImage();
+})();
@@ -0,0 +1,64 @@
+package com.nbk;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Link token generate and validate, for the legacy per-field RSA tokens (a
+ * link carries three) and the v2 envelope (RSA-OAEP wrapped key + AES-GCM).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncryptionOfTimeBenchmark {
+
+    private static final LinkIdentity IDENTITY = new LinkIdentity("100205", "user01", "TXN999");
+
+    private PrivateKey privateKey;
+    private PublicKey publicKey;
+    private String token;
+    private String envelope;
+
+    @Setup
+    public void setup() throws Exception {
+        privateKey = KeyLoader.loadPrivateKey();
+        publicKey = KeyLoader.loadPublicKey();
+        token = EncryptionOfTime.generateEncryptedToken("100205", publicKey);
+        envelope = EncryptionOfTime.generateEnvelopeToken(IDENTITY, "default", publicKey);
+    }
+
+    @Benchmark
+    public String generateToken() throws Exception {
+        return EncryptionOfTime.generateEncryptedToken("100205", publicKey);
+    }
+
+    @Benchmark
+    public String validateToken() throws Exception {
+        return EncryptionOfTime.decryptAndValidate(token, privateKey);
+    }
+
+    @Benchmark
+    public String generateEnvelope() throws Exception {
+        return EncryptionOfTime.generateEnvelopeToken(IDENTITY, "default", publicKey);
+    }
+
+    @Benchmark
+    public LinkIdentity validateEnvelope() throws Exception {
+        return EncryptionOfTime.decryptAndValidateEnvelope(envelope, kid -> privateKey);
+    }
+}
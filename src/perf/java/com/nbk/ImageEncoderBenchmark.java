@@ -0,0 +1,62 @@
+package com.nbk;
+
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Page encode time per {@link ImageIoEncoder} spec, on the first page of the
+ * bundled sample document (a scanned ID) rendered at 150 DPI. The encoded size
+ * for each spec is printed once during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageEncoderBenchmark {
+
+    @Param({ "png", "png:1", "png:9", "jpeg:0.85", "jpeg:0.7", "jpeg:0.7:gray" })
+    public String spec;
+
+    private ImageEncoder encoder;
+    private BufferedImage page;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] pdf;
+        try (InputStream in = ImageEncoderBenchmark.class.getResourceAsStream("/response.json")) {
+            pdf = Base64.getDecoder().decode(new ObjectMapper().readTree(in).get("StreamBytes").asText());
+        }
+        try (PDDocument document = PDDocument.load(pdf)) {
+            page = new PDFRenderer(document).renderImageWithDPI(0, 150, ImageType.RGB);
+        }
+        encoder = ImageIoEncoder.parse(spec);
+        System.out.printf("%n# %s: %dx%d -> %d bytes%n", spec, page.getWidth(), page.getHeight(),
+                encoder.encode(page).length);
+    }
+
+    @Benchmark
+    public byte[] encode() throws Exception {
+        return encoder.encode(page);
+    }
+}
@@ -0,0 +1,60 @@
+package com.nbk;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Page payload encryption across payload sizes: the viewer's AES-CBC path
+ * ({@code ImageController.encryptAes}) against chunked AES-GCM with 64 KB chunks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadCipherBenchmark {
+
+    @Param({ "16384", "262144", "1048576", "8388608" })
+    public int size;
+
+    private byte[] plain;
+    private byte[] key;
+    private byte[] iv;
+    private byte[] nonce;
+
+    @Setup
+    public void setup() {
+        SecureRandom rng = new SecureRandom();
+        plain = new byte[size];
+        key = new byte[16];
+        iv = new byte[16];
+        nonce = new byte[ChunkedAesGcm.NONCE_BYTES];
+        rng.nextBytes(plain);
+        rng.nextBytes(key);
+        rng.nextBytes(iv);
+        rng.nextBytes(nonce);
+    }
+
+    @Benchmark
+    public byte[] cbc() throws Exception {
+        return ImageController.encryptAes(plain, key, iv);
+    }
+
+    @Benchmark
+    public byte[] chunkedGcm() throws Exception {
+        return ChunkedAesGcm.encrypt(plain, key, nonce, 65536);
+    }
+}
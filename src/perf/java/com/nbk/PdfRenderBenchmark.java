@@ -0,0 +1,100 @@
+package com.nbk;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * {@link PdfPageRenderer} on documents made of {@code pages} copies of the
+ * bundled sample page, at several DPIs: rasterising and stitching (the
+ * stitched view, before its encode) and rasterising plus PNG encoding per page
+ * (the paged view). The per-page pixel cap is off so the DPI takes full effect.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class PdfRenderBenchmark {
+
+    @Param({ "1", "4", "16" })
+    public int pages;
+
+    @Param({ "72", "150", "300" })
+    public float dpi;
+
+    private PdfPageRenderer renderer;
+    private ImageEncoder encoder;
+    private byte[] pdf;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] sample;
+        try (InputStream in = PdfRenderBenchmark.class.getResourceAsStream("/response.json")) {
+            sample = Base64.getDecoder().decode(new ObjectMapper().readTree(in).get("StreamBytes").asText());
+        }
+        try (PDDocument source = PDDocument.load(sample); PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                document.importPage(source.getPage(i % source.getNumberOfPages()));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            pdf = out.toByteArray();
+        }
+
+        renderer = new PdfPageRenderer(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(renderer, "threads", 0);
+        ReflectionTestUtils.setField(renderer, "queueCapacity", 64);
+        ReflectionTestUtils.setField(renderer, "maxParallelPerDocument", 4);
+        ReflectionTestUtils.setField(renderer, "dpi", dpi);
+        ReflectionTestUtils.setField(renderer, "maxPixels", 0L);
+        ReflectionTestUtils.setField(renderer, "minAdaptiveDpi", 48f);
+        ReflectionTestUtils.setField(renderer, "maxAdaptiveDpi", 300f);
+        ReflectionTestUtils.setField(renderer, "memoryMode", "main");
+        ReflectionTestUtils.setField(renderer, "maxMainMemoryBytes", 64L << 20);
+        ReflectionTestUtils.setField(renderer, "scratchDir", "");
+        ReflectionTestUtils.setField(renderer, "memoryBudgetBytes", 0L);
+        ReflectionTestUtils.setField(renderer, "acquireTimeoutMs", 30_000L);
+        ReflectionTestUtils.setField(renderer, "oversizePolicy", "downscale");
+        renderer.init();
+        encoder = ImageIoEncoder.parse("png");
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderer.shutdown();
+    }
+
+    @Benchmark
+    public int rasterize() throws Exception {
+        return renderer.renderStitched(pdf, null, BufferedImage::getWidth);
+    }
+
+    @Benchmark
+    public List<byte[]> rasterizeAndEncode() throws Exception {
+        return renderer.renderPages(pdf, null, (pageIndex, image) -> encoder.encode(image));
+    }
+}
@@ -0,0 +1,63 @@
+package com.nbk;
+
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RSA link-token decrypt: a fresh {@code Cipher.getInstance} per token (the
+ * original path) against the per-thread {@link CipherPool}. Both arms do the
+ * same work, a decrypt of the already decoded token, so the difference is the
+ * cipher lookup alone.
+ *
+ * Run with {@code -t 4} to see the pooled path under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RsaTokenBenchmark {
+
+    private static final String ALGORITHM = "RSA/ECB/PKCS1Padding";
+    private static final CipherPool RSA_CIPHERS = new CipherPool(ALGORITHM);
+
+    private PrivateKey privateKey;
+    private byte[] cipherBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        privateKey = KeyLoader.loadPrivateKey();
+        PublicKey publicKey = KeyLoader.loadPublicKey();
+        cipherBytes = Base64.getUrlDecoder().decode(EncryptionOfTime.generateEncryptedToken("100205", publicKey));
+    }
+
+    @Benchmark
+    public String getInstancePerCall() throws Exception {
+        Cipher cipher = Cipher.getInstance(ALGORITHM);
+        cipher.init(Cipher.DECRYPT_MODE, privateKey);
+        return new String(cipher.doFinal(cipherBytes), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String pooled() throws Exception {
+        Cipher cipher = RSA_CIPHERS.get(Cipher.DECRYPT_MODE, privateKey);
+        return new String(cipher.doFinal(cipherBytes), StandardCharsets.UTF_8);
+    }
+}
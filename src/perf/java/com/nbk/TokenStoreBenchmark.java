@@ -0,0 +1,80 @@
+package com.nbk;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * One-time token issue and redeem on {@link InMemoryTokenStore} from four
+ * threads at once: put, take, pin and release, as a page view does. Override
+ * the thread count with {@code -t}.
+ *
+ * The store is rebuilt every iteration, because the expiry handles (keys only)
+ * of redeemed tokens stay queued until they are due.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class TokenStoreBenchmark {
+
+    @Param({ "heap", "direct" })
+    public String payloadStore;
+
+    @Param({ "4096", "262144" })
+    public int payloadSize;
+
+    private InMemoryTokenStore store;
+    private byte[] payload;
+    private final byte[] prefix = new byte[16];
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final String prefix = Thread.currentThread().getName() + ":";
+        private long next;
+
+        String next() {
+            return prefix + next++;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PayloadStore payloads = new PayloadStore(registry);
+        ReflectionTestUtils.setField(payloads, "type", payloadStore);
+        ReflectionTestUtils.setField(payloads, "maxBytes", 256L << 20);
+        ReflectionTestUtils.setField(payloads, "spillFile", "");
+        payloads.init();
+        store = new InMemoryTokenStore(payloads, registry);
+        payload = new byte[payloadSize];
+    }
+
+    @Benchmark
+    public boolean putTake(Keys keys) {
+        String key = keys.next();
+        store.put(key, payload, prefix, System.currentTimeMillis() + 30_000L);
+        TokenEntry entry = store.take(key);
+        boolean pinned = entry.getPayload().acquire();
+        entry.getPayload().release();
+        return pinned;
+    }
+}
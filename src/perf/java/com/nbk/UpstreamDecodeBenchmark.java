@@ -0,0 +1,60 @@
+package com.nbk;
+
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.StreamUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Laserfiche response decode on the bundled {@code response.json}: the
+ * streaming parser {@link LaserficheClient} uses against reading the body into
+ * a JSON tree and decoding the Base64 string afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpstreamDecodeBenchmark {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private LaserficheClient client;
+    private byte[] body;
+
+    @Setup
+    public void setup() throws Exception {
+        try (InputStream in = UpstreamDecodeBenchmark.class.getResourceAsStream("/response.json")) {
+            body = StreamUtils.copyToByteArray(in);
+        }
+        // The decode path needs no HTTP client, so init() is not called
+        client = new LaserficheClient(new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public UpstreamDocument streaming() {
+        return client.extractAndDecodePdf(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+    }
+
+    @Benchmark
+    public byte[] treeThenDecode() throws Exception {
+        return Base64.getDecoder().decode(objectMapper.readTree(body).get("StreamBytes").asText());
+    }
+}
@@ -0,0 +1,206 @@
+package com.nbk;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Open-loop load driver for a running viewer node: starts views at a fixed
+ * rate and walks the real flow of each one — {@code /generate-link}, the viewer
+ * page (answering the adaptive-DPI probe if the node sends one) and the one-time
+ * {@code /api/image/data} fetch of every page.
+ *
+ * Latency is measured from when a view was scheduled to start, not from when a
+ * worker got to it, so a saturated node shows up as queueing time instead of
+ * being hidden by a slower request rate.
+ *
+ * <pre>
+ * mvn -Pperf test-compile exec:java@load \
+ *     -Dload.args="--url http://localhost:9900 --rps 20 --duration 60"
+ * </pre>
+ *
+ * Options: {@code --url}, {@code --rps}, {@code --duration} and {@code --warmup}
+ * (seconds), {@code --workers} (maximum views in flight), {@code --viewport}
+ * ({@code WIDTHxHEIGHTxDPR}, sent when the node probes).
+ */
+public final class ViewerLoadDriver {
+
+    private static final Pattern RAW_URL = Pattern.compile("var rawUrl = '([^']*)'");
+    private static final Pattern OTP = Pattern.compile("data-otp=\"([^\"]*)\"");
+    private static final Pattern PAGE_COUNT = Pattern.compile("data-pages=\"(\\d+)\"");
+
+    private final String baseUrl;
+    private final String viewportQuery;
+    private final CloseableHttpClient http;
+
+    // Microseconds, up to an hour
+    private final Map<String, Histogram> latencies = new LinkedHashMap<>();
+    private final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private final AtomicLong pagesFetched = new AtomicLong();
+
+    private ViewerLoadDriver(String baseUrl, String viewport, int workers) {
+        this.baseUrl = baseUrl.replaceAll("/+$", "");
+        String[] v = viewport.split("x");
+        this.viewportQuery = "&vw=" + v[0] + "&vh=" + v[1] + "&dpr=" + (v.length > 2 ? v[2] : "1");
+        this.http = HttpClients.custom().setMaxConnTotal(workers).setMaxConnPerRoute(workers).build();
+        for (String step : new String[] { "link", "view", "page", "total" }) {
+            latencies.put(step, new ConcurrentHistogram(TimeUnit.HOURS.toMicros(1), 3));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("url", "http://localhost:9900");
+        options.put("rps", "10");
+        options.put("duration", "30");
+        options.put("warmup", "5");
+        options.put("workers", "200");
+        options.put("viewport", "1280x800x1");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        double rps = Double.parseDouble(options.get("rps"));
+        long warmupS = Long.parseLong(options.get("warmup"));
+        long durationS = Long.parseLong(options.get("duration"));
+        int workers = Integer.parseInt(options.get("workers"));
+        ViewerLoadDriver driver = new ViewerLoadDriver(options.get("url"), options.get("viewport"), workers);
+        System.out.printf(Locale.ROOT, "Driving %s at %.1f views/s for %d s (+%d s warm-up), %d workers%n",
+                options.get("url"), rps, durationS, warmupS, workers);
+        driver.run(rps, warmupS, durationS, workers);
+    }
+
+    private void run(double rps, long warmupS, long durationS, int workers) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rps);
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupS);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationS);
+
+        long started = 0;
+        for (long scheduled = start; scheduled < end; scheduled = start + ++started * intervalNanos) {
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            final long intended = scheduled;
+            final boolean measured = scheduled >= measureFrom;
+            pool.execute(() -> view(intended, measured));
+        }
+        pool.shutdown();
+        if (!pool.awaitTermination(5, TimeUnit.MINUTES)) {
+            System.out.println("Views still running after 5 minutes, reporting what finished");
+            pool.shutdownNow();
+        }
+        http.close();
+        report(durationS);
+    }
+
+    // ─── One view ──────────────────────────────────────────────────────────────
+
+    private void view(long intendedStart, boolean measured) {
+        String step = "link";
+        try {
+            long t = System.nanoTime();
+            String linkPage = get(baseUrl + "/generate-link");
+            String viewerUrl = find(RAW_URL, linkPage, "viewer link");
+            record(measured, "link", t);
+
+            step = "view";
+            t = System.nanoTime();
+            String page = get(viewerUrl);
+            if (!OTP.matcher(page).find() && page.contains("searchParams.set('vw'")) {
+                page = get(viewerUrl + viewportQuery);
+            }
+            String otp = find(OTP, page, "one-time token");
+            int pageCount = Integer.parseInt(find(PAGE_COUNT, page, "page count"));
+            record(measured, "view", t);
+
+            step = "page";
+            for (int i = 0; i < pageCount; i++) {
+                t = System.nanoTime();
+                get(baseUrl + "/api/image/data?token=" + otp + "&page=" + i);
+                record(measured, "page", t);
+                if (measured) {
+                    pagesFetched.incrementAndGet();
+                }
+            }
+            record(measured, "total", intendedStart);
+        } catch (Exception e) {
+            if (measured) {
+                failures.computeIfAbsent(step + ": " + e.getMessage(), k -> new AtomicLong()).incrementAndGet();
+            }
+        }
+    }
+
+    private String get(String url) throws IOException {
+        try (CloseableHttpResponse response = http.execute(new HttpGet(url))) {
+            int status = response.getStatusLine().getStatusCode();
+            // Read to the end either way so the connection goes back to the pool
+            String body = response.getEntity() != null ? EntityUtils.toString(response.getEntity()) : "";
+            if (status != 200) {
+                throw new IOException("HTTP " + status);
+            }
+            return body;
+        }
+    }
+
+    private static String find(Pattern pattern, String html, String what) throws IOException {
+        Matcher m = pattern.matcher(html);
+        if (!m.find()) {
+            throw new IOException("no " + what + " in response");
+        }
+        return m.group(1);
+    }
+
+    private void record(boolean measured, String step, long fromNanos) {
+        if (measured) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - fromNanos);
+            latencies.get(step).recordValue(Math.min(micros, TimeUnit.HOURS.toMicros(1)));
+        }
+    }
+
+    // ─── Report ────────────────────────────────────────────────────────────────
+
+    private void report(long durationS) {
+        long views = latencies.get("total").getTotalCount();
+        long failed = 0;
+        for (AtomicLong n : failures.values()) {
+            failed += n.get();
+        }
+        System.out.printf(Locale.ROOT, "%nViews: %d ok, %d failed, %.1f ok/s, %.1f pages/s%n", views, failed,
+                views / (double) durationS, pagesFetched.get() / (double) durationS);
+        System.out.printf("%-6s %8s %9s %9s %9s %9s %9s %9s%n",
+                "step", "count", "mean ms", "p50", "p90", "p99", "p99.9", "max");
+        for (Map.Entry<String, Histogram> e : latencies.entrySet()) {
+            Histogram h = e.getValue();
+            System.out.printf(Locale.ROOT, "%-6s %8d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    e.getKey(), h.getTotalCount(), h.getMean() / 1000.0,
+                    h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                    h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0,
+                    h.getMaxValue() / 1000.0);
+        }
+        for (Map.Entry<String, AtomicLong> e : failures.entrySet()) {
+            System.out.printf("failed %s: %d%n", e.getKey(), e.getValue().get());
+        }
+    }
+}
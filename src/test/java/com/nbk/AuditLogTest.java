@@ -0,0 +1,81 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class AuditLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void blockingModeWritesEveryRecordWhenTheBufferOverflows() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AuditLog audit = new AuditLog(registry);
+        ReflectionTestUtils.setField(audit, "sink", "jsonl");
+        ReflectionTestUtils.setField(audit, "directory", dir.toString());
+        ReflectionTestUtils.setField(audit, "bufferSize", 4);
+        ReflectionTestUtils.setField(audit, "batchSize", 2);
+        ReflectionTestUtils.setField(audit, "whenFull", "block");
+        // No wait: a full ring goes straight to the request-thread write
+        ReflectionTestUtils.setField(audit, "blockTimeoutMs", 0L);
+        ReflectionTestUtils.setField(audit, "fsyncIntervalMs", -1L);
+        ReflectionTestUtils.setField(audit, "maxHistoryDays", 90);
+        audit.start();
+
+        int threads = 8;
+        int perThread = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final String ip = "10.0.0." + t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    audit.record(new AuditRecord(System.currentTimeMillis(), ip,
+                            new LinkIdentity("cif", "user", "tx-" + i), true,
+                            Collections.<String, Long>emptyMap(), 1_000_000L));
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        audit.stop();
+
+        List<String> lines = Files.readAllLines(dir.resolve("audit.jsonl"), StandardCharsets.UTF_8);
+        assertEquals(threads * perThread, lines.size());
+        for (String line : lines) {
+            assertEquals('{', line.charAt(0));
+            assertEquals('}', line.charAt(line.length() - 1));
+        }
+        assertEquals(threads * perThread, count(registry, "written"));
+        assertEquals(0, count(registry, "dropped"));
+        assertEquals(0, count(registry, "failed"));
+    }
+
+    private static long count(SimpleMeterRegistry registry, String result) {
+        return (long) registry.get("viewer.audit.records").tag("result", result).functionCounter().count();
+    }
+}
@@ -0,0 +1,95 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class AuditRingTest {
+
+    @Test
+    void rejectsOffersOnceFullAndAcceptsThemAgainAfterAPoll() {
+        AuditRing<Integer> ring = new AuditRing<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        assertEquals(0, (int) ring.poll());
+        assertTrue(ring.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, (int) ring.poll());
+        }
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    void roundsTheCapacityUpToAPowerOfTwo() {
+        assertEquals(8, new AuditRing<>(5).capacity());
+        assertEquals(8192, new AuditRing<>(8192).capacity());
+    }
+
+    @Test
+    void deliversEveryElementOfManyProducersOnceAndInProducerOrder() throws Exception {
+        int producers = 8;
+        int perProducer = 50_000;
+        // Small enough that producers keep finding it full and lapping the consumer
+        AuditRing<long[]> ring = new AuditRing<>(64);
+
+        ExecutorService pool = Executors.newFixedThreadPool(producers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final long producer = p;
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (long seq = 0; seq < perProducer; seq++) {
+                    long[] element = { producer, seq };
+                    while (!ring.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+                return null;
+            }));
+        }
+
+        long[] next = new long[producers];
+        int received = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        start.countDown();
+        while (received < producers * perProducer) {
+            long[] element = ring.poll();
+            if (element == null) {
+                assertTrue(System.nanoTime() < deadline, "timed out after " + received + " elements");
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) element[0];
+            assertEquals(next[producer], element[1], "producer " + producer + " out of order");
+            next[producer]++;
+            received++;
+        }
+        for (Future<?> f : futures) {
+            f.get(10, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertNull(ring.poll());
+        assertEquals(0, ring.size());
+        for (int p = 0; p < producers; p++) {
+            assertEquals(perProducer, next[p]);
+        }
+    }
+}
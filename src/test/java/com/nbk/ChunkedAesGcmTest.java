@@ -0,0 +1,80 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ChunkedAesGcmTest {
+
+    private static final int CHUNK = 1024;
+
+    private final Random random = new Random(42);
+    private final byte[] key = bytes(16);
+    private final byte[] nonce = bytes(ChunkedAesGcm.NONCE_BYTES);
+
+    @Test
+    void emptyPayloadIsOneEmptyChunk() throws Exception {
+        assertRoundTrip(new byte[0], 1);
+    }
+
+    @Test
+    void partialLastChunk() throws Exception {
+        assertRoundTrip(bytes(3 * CHUNK + 17), 4);
+    }
+
+    @Test
+    void exactMultipleOfTheChunkSize() throws Exception {
+        assertRoundTrip(bytes(4 * CHUNK), 4);
+    }
+
+    @Test
+    void manyChunks() throws Exception {
+        assertRoundTrip(bytes(40 * CHUNK + 1), 41);
+    }
+
+    @Test
+    void tamperedChunkFailsToOpen() throws Exception {
+        byte[] sealed = ChunkedAesGcm.encrypt(bytes(2 * CHUNK), key, nonce, CHUNK);
+        sealed[CHUNK + 20] ^= 1;
+
+        assertThrows(GeneralSecurityException.class, () -> ChunkedAesGcm.decrypt(sealed, key, nonce, CHUNK));
+    }
+
+    @Test
+    void truncatedPayloadFailsToOpen() throws Exception {
+        byte[] sealed = ChunkedAesGcm.encrypt(bytes(2 * CHUNK), key, nonce, CHUNK);
+        byte[] firstChunkOnly = new byte[CHUNK + ChunkedAesGcm.TAG_BYTES];
+        System.arraycopy(sealed, 0, firstChunkOnly, 0, firstChunkOnly.length);
+
+        // Chunk 0 was sealed as not-last, so it cannot pass as the final chunk
+        assertThrows(GeneralSecurityException.class,
+                () -> ChunkedAesGcm.decrypt(firstChunkOnly, key, nonce, CHUNK));
+    }
+
+    @Test
+    void rejectsChunkSizesOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> ChunkedAesGcm.encrypt(bytes(10), key, nonce, 0));
+        assertThrows(IllegalArgumentException.class, () -> ChunkedAesGcm.checkChunkSize(-1));
+        assertThrows(IllegalArgumentException.class,
+                () -> ChunkedAesGcm.checkChunkSize(ChunkedAesGcm.MAX_CHUNK_SIZE + 1));
+    }
+
+    private void assertRoundTrip(byte[] plain, int expectedChunks) throws Exception {
+        byte[] sealed = ChunkedAesGcm.encrypt(plain, key, nonce, CHUNK);
+
+        assertEquals(expectedChunks, ChunkedAesGcm.chunkCount(plain.length, CHUNK));
+        assertEquals(ChunkedAesGcm.sealedLength(plain.length, CHUNK), sealed.length);
+        assertArrayEquals(plain, ChunkedAesGcm.decrypt(sealed, key, nonce, CHUNK));
+    }
+
+    private byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,205 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+class EncryptionOfTimeTest {
+
+    private static final String CORRUPTED = "Security Alert: Unauthorized or corrupted identity transfer.";
+    private static final String FORMAT = "Security Alert: Unauthorized transfer format.";
+    private static final String EXPIRED = "Security Alert: The transfer link has expired.";
+    private static final String FUTURE = "Security Alert: Invalid link timestamp.";
+
+    private static final LinkIdentity IDENTITY = new LinkIdentity("CIF-1", "100205", "TX-42");
+
+    private static KeyPair current;
+    private static KeyPair previous;
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+        kpg.initialize(2048);
+        current = kpg.generateKeyPair();
+        previous = kpg.generateKeyPair();
+    }
+
+    // ─── v1 tokens ───
+
+    @Test
+    void tokenRoundTrips() throws Exception {
+        String token = EncryptionOfTime.generateEncryptedToken("100205", current.getPublic());
+
+        assertEquals("100205", EncryptionOfTime.decryptAndValidate(token, current.getPrivate()));
+    }
+
+    @Test
+    void tokenFromBeforeARotationValidatesAgainstTheOlderKey() throws Exception {
+        String token = EncryptionOfTime.generateEncryptedToken("100205", previous.getPublic());
+
+        assertEquals("100205", EncryptionOfTime.decryptAndValidate(token,
+                Arrays.asList(current.getPrivate(), previous.getPrivate())));
+    }
+
+    @Test
+    void tokenUnderAnUnknownKeyIsRejected() throws Exception {
+        String token = EncryptionOfTime.generateEncryptedToken("100205", previous.getPublic());
+
+        assertRejected(CORRUPTED, () -> EncryptionOfTime.decryptAndValidate(token,
+                Collections.singletonList(current.getPrivate())));
+    }
+
+    @Test
+    void tokenWithAMalformedPayloadIsRejected() throws Exception {
+        String noTimestamp = legacyToken("100205", current.getPublic());
+        String notANumber = legacyToken("100205|soon", current.getPublic());
+
+        assertRejected(FORMAT, () -> EncryptionOfTime.decryptAndValidate(noTimestamp, current.getPrivate()));
+        assertRejected(FORMAT, () -> EncryptionOfTime.decryptAndValidate(notANumber,
+                Arrays.asList(previous.getPrivate(), current.getPrivate())));
+    }
+
+    @Test
+    void tokenOutsideTheValidityWindowIsRejected() throws Exception {
+        long now = System.currentTimeMillis();
+        String expired = legacyToken("100205|" + (now - 9 * 60_000), current.getPublic());
+        String future = legacyToken("100205|" + (now + 4 * 60_000), current.getPublic());
+
+        assertRejected(EXPIRED, () -> EncryptionOfTime.decryptAndValidate(expired, current.getPrivate()));
+        assertRejected(FUTURE, () -> EncryptionOfTime.decryptAndValidate(future, current.getPrivate()));
+    }
+
+    // ─── v2 envelopes ───
+
+    @Test
+    void envelopeRoundTripsAndPicksTheKeyByItsEmbeddedId() throws Exception {
+        String token = EncryptionOfTime.generateEnvelopeToken(IDENTITY, "k2", current.getPublic());
+        List<String> looked = new ArrayList<>();
+
+        LinkIdentity opened = EncryptionOfTime.decryptAndValidateEnvelope(token, kid -> {
+            looked.add(kid);
+            return keys().get(kid);
+        });
+
+        assertEquals(Collections.singletonList("k2"), looked);
+        assertEquals(IDENTITY.getCif(), opened.getCif());
+        assertEquals(IDENTITY.getUserId(), opened.getUserId());
+        assertEquals(IDENTITY.getTransactionId(), opened.getTransactionId());
+    }
+
+    @Test
+    void envelopeWithAFlippedKidFailsTheAssociatedDataCheck() throws Exception {
+        byte[] raw = envelope(System.currentTimeMillis());
+        // kid "k2" starts after version and kidLen; "k3" still resolves to the right key
+        raw[3] ^= 0x01;
+
+        assertRejected(CORRUPTED, () -> EncryptionOfTime.decryptAndValidateEnvelope(encode(raw),
+                kid -> current.getPrivate()));
+    }
+
+    @Test
+    void envelopeWithAFlippedWrappedLengthIsRejected() throws Exception {
+        byte[] shorter = envelope(System.currentTimeMillis());
+        byte[] longer = shorter.clone();
+        // wrappedLen is 256 (0x0100) after version, kidLen and the two kid bytes
+        shorter[4] ^= 0x01;
+        longer[5] ^= 0x01;
+
+        assertRejected(CORRUPTED, () -> EncryptionOfTime.decryptAndValidateEnvelope(encode(shorter),
+                kid -> current.getPrivate()));
+        assertRejected(CORRUPTED, () -> EncryptionOfTime.decryptAndValidateEnvelope(encode(longer),
+                kid -> current.getPrivate()));
+    }
+
+    @Test
+    void envelopeWithATamperedPayloadIsRejected() throws Exception {
+        byte[] raw = envelope(System.currentTimeMillis());
+        raw[raw.length - 20] ^= 0x01;
+
+        assertRejected(CORRUPTED, () -> EncryptionOfTime.decryptAndValidateEnvelope(encode(raw), keys()::get));
+    }
+
+    @Test
+    void envelopeUnderAnUnknownKidIsRejected() throws Exception {
+        String token = EncryptionOfTime.generateEnvelopeToken(IDENTITY, "retired", current.getPublic());
+
+        assertRejected(CORRUPTED, () -> EncryptionOfTime.decryptAndValidateEnvelope(token, keys()::get));
+    }
+
+    @Test
+    void truncatedOrGarbageEnvelopeIsRejected() throws Exception {
+        byte[] raw = envelope(System.currentTimeMillis());
+
+        assertRejected(FORMAT, () -> EncryptionOfTime.decryptAndValidateEnvelope(
+                encode(Arrays.copyOf(raw, 40)), keys()::get));
+        assertRejected(FORMAT, () -> EncryptionOfTime.decryptAndValidateEnvelope("", keys()::get));
+        assertRejected(FORMAT, () -> EncryptionOfTime.decryptAndValidateEnvelope("not a token!", keys()::get));
+    }
+
+    @Test
+    void envelopeWithAnotherVersionIsRejected() throws Exception {
+        byte[] raw = envelope(System.currentTimeMillis());
+        raw[0] = 1;
+
+        assertRejected(FORMAT, () -> EncryptionOfTime.decryptAndValidateEnvelope(encode(raw), keys()::get));
+    }
+
+    @Test
+    void envelopeOutsideTheValidityWindowIsRejected() throws Exception {
+        long now = System.currentTimeMillis();
+        String expired = encode(envelope(now - 9 * 60_000));
+        String future = encode(envelope(now + 4 * 60_000));
+
+        assertRejected(EXPIRED, () -> EncryptionOfTime.decryptAndValidateEnvelope(expired, keys()::get));
+        assertRejected(FUTURE, () -> EncryptionOfTime.decryptAndValidateEnvelope(future, keys()::get));
+    }
+
+    // ─── Helpers ───
+
+    private static Map<String, PrivateKey> keys() {
+        Map<String, PrivateKey> keys = new HashMap<>();
+        keys.put("k1", previous.getPrivate());
+        keys.put("k2", current.getPrivate());
+        return keys;
+    }
+
+    // A raw envelope under kid "k2", issued at issuedMs
+    private static byte[] envelope(long issuedMs) throws Exception {
+        return Base64.getUrlDecoder().decode(
+                EncryptionOfTime.generateEnvelopeToken(IDENTITY, "k2", current.getPublic(), issuedMs));
+    }
+
+    private static String encode(byte[] raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+
+    private static void assertRejected(String message, Executable validation) {
+        assertEquals(message, assertThrows(SecurityException.class, validation).getMessage());
+    }
+
+    // A v1 token around an arbitrary payload
+    private static String legacyToken(String payload, PublicKey publicKey) throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, publicKey);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(cipher.doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+}
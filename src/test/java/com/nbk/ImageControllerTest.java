@@ -0,0 +1,39 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class ImageControllerTest {
+
+    private ImageController controller;
+
+    @BeforeEach
+    void setUp() {
+        controller = new ImageController(null, null, null, null, null, null, null, null,
+                mock(ViewerMetrics.class), null);
+        ReflectionTestUtils.setField(controller, "tokenTtlMs", 30_000L);
+        ReflectionTestUtils.setField(controller, "tokenTtlPerPageMs", 2_000L);
+        ReflectionTestUtils.setField(controller, "tokenMinBytesPerSecond", 65_536L);
+    }
+
+    @Test
+    void firstPageGetsTheBaseTtl() {
+        assertEquals(1_030_000L, controller.pageExpiryMs(1_000_000L, 0, 0));
+    }
+
+    @Test
+    void laterPagesAllowForThePagesBeforeThem() {
+        // 4 pages of 640 KB before page 4: 8 s per-page allowance + 40 s at 64 KB/s
+        assertEquals(1_078_000L, controller.pageExpiryMs(1_000_000L, 4, 4 * 655_360L));
+    }
+
+    @Test
+    void sizeAllowanceCanBeSwitchedOff() {
+        ReflectionTestUtils.setField(controller, "tokenMinBytesPerSecond", 0L);
+        assertEquals(1_038_000L, controller.pageExpiryMs(1_000_000L, 4, 4 * 655_360L));
+    }
+}
@@ -0,0 +1,76 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class InMemoryTokenStoreTest {
+
+    private PayloadStore payloadStore;
+    private InMemoryTokenStore tokens;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        payloadStore = new PayloadStore(registry);
+        ReflectionTestUtils.setField(payloadStore, "type", "heap");
+        ReflectionTestUtils.setField(payloadStore, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(payloadStore, "spillFile", "");
+        payloadStore.init();
+        tokens = new InMemoryTokenStore(payloadStore, registry);
+    }
+
+    @Test
+    void tokenCanBeTakenOnce() {
+        tokens.put("a:0", new byte[16], new byte[16], System.currentTimeMillis() + 30_000);
+
+        assertNotNull(tokens.take("a:0"));
+        assertNull(tokens.take("a:0"));
+    }
+
+    @Test
+    void reaperDropsExpiredTokensAndFreesTheirPayloads() {
+        tokens.put("a:0", new byte[100], new byte[16], System.currentTimeMillis() - 1);
+
+        tokens.reap();
+
+        assertEquals(0, tokens.size());
+        assertEquals(0, payloadStore.bytes());
+    }
+
+    @Test
+    void reaperLeavesATokenReplacedUnderTheSameKey() {
+        tokens.put("a:0", new byte[100], new byte[16], System.currentTimeMillis() - 1);
+        tokens.put("a:0", new byte[100], new byte[16], System.currentTimeMillis() + 30_000);
+
+        tokens.reap();
+
+        assertNotNull(tokens.take("a:0"));
+    }
+
+    @Test
+    void redeemedPayloadIsNotHeldUntilItsExpiry() throws Exception {
+        byte[] ciphertext = new byte[1 << 20];
+        WeakReference<byte[]> ref = new WeakReference<>(ciphertext);
+        tokens.put("a:0", ciphertext, new byte[16], System.currentTimeMillis() + 30_000);
+        ciphertext = null;
+
+        TokenEntry entry = tokens.take("a:0");
+        entry.getPayload().release();
+        entry = null;
+
+        for (int i = 0; i < 10 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(ref.get());
+    }
+}
@@ -0,0 +1,102 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Base64;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class KeyProviderTest {
+
+    @TempDir
+    Path dir;
+
+    private KeyProvider provider;
+
+    @BeforeEach
+    void setUp() {
+        provider = new KeyProvider();
+        ReflectionTestUtils.setField(provider, "configuredActiveId", "default");
+        ReflectionTestUtils.setField(provider, "keyDir", dir.toString());
+    }
+
+    @Test
+    void bundledPairServesTheConfiguredIdWhenTheDirectoryIsEmpty() throws Exception {
+        provider.reload();
+
+        assertEquals("default", provider.getActiveKeyId());
+        assertEquals(KeyLoader.loadPublicKey(), provider.getPublicKey());
+        assertEquals(KeyLoader.loadPrivateKey(), provider.getPrivateKey());
+    }
+
+    @Test
+    void rotatesToACompletePairAndKeepsTheBundledOneUnderItsOwnId() throws Exception {
+        KeyPair k2 = writePair("k2", true, true);
+        write("active", "k2");
+
+        provider.reload();
+
+        assertEquals("k2", provider.getActiveKeyId());
+        assertEquals(k2.getPublic(), provider.getPublicKey());
+        assertEquals(k2.getPrivate(), provider.getPrivateKey());
+        assertEquals(KeyLoader.loadPrivateKey(), provider.getPrivateKey("default"));
+    }
+
+    @Test
+    void activeKidMissingAHalfFailsAndKeepsThePreviousKeys() throws Exception {
+        provider.reload();
+        writePair("k2", true, false);
+        write("active", "k2");
+
+        assertThrows(IllegalStateException.class, provider::reload);
+        assertEquals("default", provider.getActiveKeyId());
+        assertEquals(KeyLoader.loadPublicKey(), provider.getPublicKey());
+    }
+
+    @Test
+    void activeKidWithoutFilesFails() throws Exception {
+        write("active", "k3");
+
+        assertThrows(IllegalStateException.class, provider::reload);
+    }
+
+    @Test
+    void bundledHalfIsNeverPairedWithADirectoryHalf() throws Exception {
+        KeyPair own = writePair("default", false, true);
+
+        assertThrows(IllegalStateException.class, provider::reload);
+        assertNotEquals(KeyLoader.loadPublicKey(), own.getPublic());
+    }
+
+    private KeyPair writePair(String kid, boolean withPrivate, boolean withPublic) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair pair = generator.generateKeyPair();
+        if (withPrivate) {
+            write(kid + ".private.pem", pem("PRIVATE KEY", pair.getPrivate().getEncoded()));
+        }
+        if (withPublic) {
+            write(kid + ".public.pem", pem("PUBLIC KEY", pair.getPublic().getEncoded()));
+        }
+        return pair;
+    }
+
+    private static String pem(String type, byte[] der) {
+        return "-----BEGIN " + type + "-----\n" + Base64.getMimeEncoder().encodeToString(der)
+                + "\n-----END " + type + "-----\n";
+    }
+
+    private void write(String name, String content) throws Exception {
+        Files.write(dir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,73 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class MockLaserficheControllerTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withUserConfiguration(MockLaserficheController.class);
+
+    @Test
+    void isOnlyMappedWhenEnabled() {
+        contextRunner.run(context -> assertFalse(context.containsBean("mockLaserficheController")));
+        contextRunner.withPropertyValues("app.mock.enabled=false")
+                .run(context -> assertFalse(context.containsBean("mockLaserficheController")));
+        contextRunner.withPropertyValues("app.mock.enabled=true")
+                .run(context -> assertTrue(context.containsBean("mockLaserficheController")));
+    }
+
+    @Test
+    void rejectsScansLargerThanTheCaps() throws Exception {
+        MockLaserficheController mock = newMock(1 << 20);
+
+        // 558 M pixels a page
+        assertEquals(HttpStatus.BAD_REQUEST, get(mock, 1, "a0", 600).getStatusCode());
+        // 8.4 M pixels a page, 84 M over the document cap
+        assertEquals(HttpStatus.BAD_REQUEST, get(mock, 70, "letter", 300).getStatusCode());
+        assertEquals(0, mock.cachedShapes());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedShapesBeyondTheCacheBudget() throws Exception {
+        MockLaserficheController mock = newMock(1 << 20);
+        byte[] first = get(mock, 1, "letter", 0).getBody();
+        assertSame(first, get(mock, 1, "letter", 0).getBody());
+
+        // Room for two of these
+        long budget = first.length * 5L / 2;
+        ReflectionTestUtils.setField(mock, "cacheMaxBytes", budget);
+        get(mock, 2, "letter", 0);
+        get(mock, 3, "letter", 0);
+        get(mock, 4, "letter", 0);
+
+        assertTrue(mock.cachedShapes() <= 2);
+        assertTrue(mock.cachedBytes() <= budget);
+    }
+
+    private static MockLaserficheController newMock(long cacheMaxBytes) throws Exception {
+        MockLaserficheController mock = new MockLaserficheController();
+        ReflectionTestUtils.setField(mock, "defaultPages", 0);
+        ReflectionTestUtils.setField(mock, "defaultFormat", "letter");
+        ReflectionTestUtils.setField(mock, "defaultScanDpi", 0);
+        ReflectionTestUtils.setField(mock, "defaultLatencyMs", 0L);
+        ReflectionTestUtils.setField(mock, "defaultJitterMs", 0L);
+        ReflectionTestUtils.setField(mock, "defaultErrorRate", 0.0);
+        ReflectionTestUtils.setField(mock, "cacheMaxBytes", cacheMaxBytes);
+        mock.init();
+        return mock;
+    }
+
+    private static ResponseEntity<byte[]> get(MockLaserficheController mock, int pages, String format, int scanDpi)
+            throws Exception {
+        return mock.getDocument(pages, format, scanDpi, null, null, null);
+    }
+}
@@ -0,0 +1,148 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PayloadStoreTest {
+
+    private PayloadStore store;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    void heapModeEvictsTheOldestPayloadWhenTheBudgetIsFull() throws Exception {
+        store = newStore("heap", 1000);
+        PayloadStore.Payload first = store.store(fill(400, 1));
+        PayloadStore.Payload second = store.store(fill(400, 2));
+        PayloadStore.Payload third = store.store(fill(400, 3));
+
+        assertFalse(first.acquire());
+        assertEquals(2, store.size());
+        assertEquals(800, store.bytes());
+        assertContent(second, fill(400, 2));
+        assertContent(third, fill(400, 3));
+    }
+
+    @Test
+    void releasedPayloadsFreeTheirBudget() throws Exception {
+        store = newStore("heap", 1000);
+        PayloadStore.Payload payload = store.store(fill(400, 1));
+        assertTrue(payload.acquire());
+        payload.release();
+
+        assertEquals(0, store.bytes());
+        assertFalse(payload.acquire());
+    }
+
+    @Test
+    void mappedRingWrapsToTheStart() throws Exception {
+        store = newStore("mapped", 1000);
+        PayloadStore.Payload first = store.store(fill(400, 1));
+        PayloadStore.Payload second = store.store(fill(400, 2));
+        PayloadStore.Payload third = store.store(fill(300, 3));
+
+        assertEquals(0, offset(first));
+        assertEquals(400, offset(second));
+        assertEquals(0, offset(third));
+        assertFalse(first.acquire());
+        assertContent(second, fill(400, 2));
+        assertContent(third, fill(300, 3));
+    }
+
+    @Test
+    void mappedRingFallsBackToHeapWhenAPinnedPayloadHoldsTheSpace() throws Exception {
+        store = newStore("mapped", 1000);
+        PayloadStore.Payload first = store.store(fill(400, 1));
+        store.store(fill(400, 2));
+        assertTrue(first.acquire());
+
+        PayloadStore.Payload third = store.store(fill(300, 3));
+
+        assertEquals(-1, offset(third));
+        assertContent(first, fill(400, 1));
+        assertContent(third, fill(300, 3));
+    }
+
+    @Test
+    void concurrentStoresNeverOverwriteAPinnedPayload() throws Exception {
+        store = newStore("mapped", 16 * 1024);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                results.add(pool.submit((Callable<Integer>) () -> {
+                    Random random = new Random(seed);
+                    int checked = 0;
+                    for (int i = 0; i < 2000; i++) {
+                        byte[] data = fill(1 + random.nextInt(4096), random.nextInt(250) + 1);
+                        PayloadStore.Payload payload = store.store(data);
+                        // Evicted by another thread first is fine; once pinned it must be intact
+                        if (payload.acquire()) {
+                            assertContent(payload, data);
+                            checked++;
+                        }
+                        payload.release();
+                    }
+                    return checked;
+                }));
+            }
+            int checked = 0;
+            for (Future<Integer> result : results) {
+                checked += result.get();
+            }
+            assertTrue(checked > 0);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(0, store.bytes());
+    }
+
+    private static PayloadStore newStore(String type, long maxBytes) throws Exception {
+        PayloadStore store = new PayloadStore(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(store, "type", type);
+        ReflectionTestUtils.setField(store, "maxBytes", maxBytes);
+        ReflectionTestUtils.setField(store, "spillFile", "");
+        store.init();
+        return store;
+    }
+
+    private static byte[] fill(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private static int offset(PayloadStore.Payload payload) {
+        return (Integer) ReflectionTestUtils.getField(payload, "offset");
+    }
+
+    private static void assertContent(PayloadStore.Payload payload, byte[] expected) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        payload.writeTo(out);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+}
@@ -0,0 +1,147 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PdfPageRendererTest {
+
+    private static final long BUDGET = 64L << 20;
+
+    // A4 (595.3 x 841.9 pt) at 72 DPI as estimated, sides rounded up; PDFBox rounds down
+    private static final long PAGE_BYTES = 596L * 842 * 4;
+
+    private PdfPageRenderer renderer;
+
+    @AfterEach
+    void tearDown() {
+        if (renderer != null) {
+            renderer.shutdown();
+        }
+    }
+
+    @Test
+    void stitchedRenderHoldsPagesAndStitchedImageUntilTheHandlerReturns() throws Exception {
+        renderer = newRenderer(BUDGET, "downscale");
+
+        long held = renderer.renderStitched(a4Pages(2), null, image -> {
+            assertEquals(2 * 595, image.getWidth());
+            assertEquals(841, image.getHeight());
+            return BUDGET - renderer.availableMemoryBytes();
+        });
+
+        // Both pages plus the stitched raster, rounded up to whole KiB
+        assertEquals((4 * PAGE_BYTES + 1023) / 1024 * 1024, held);
+        assertEquals(BUDGET, renderer.availableMemoryBytes());
+    }
+
+    @Test
+    void pagedRenderHoldsOnlyThePagesInFlight() throws Exception {
+        renderer = newRenderer(BUDGET, "downscale");
+
+        List<Long> held = renderer.renderPages(a4Pages(3), null,
+                (pageIndex, image) -> BUDGET - renderer.availableMemoryBytes());
+
+        // One worker: one page at a time
+        assertEquals((PAGE_BYTES + 1023) / 1024 * 1024, (long) held.get(0));
+        assertEquals(BUDGET, renderer.availableMemoryBytes());
+    }
+
+    @Test
+    void stitchedImageCountsTowardsTheRejectPolicy() throws Exception {
+        // Room for both pages, not for the stitched image as well
+        renderer = newRenderer(3 * PAGE_BYTES, "reject");
+
+        assertThrows(DocumentTooLargeException.class,
+                () -> renderer.renderStitched(a4Pages(2), null, image -> image.getWidth()));
+        assertEquals(1, renderer.renderPages(a4Pages(1), null, (pageIndex, image) -> pageIndex + 1).size());
+    }
+
+    @Test
+    void oversizedStitchedDocumentIsDownscaledToFit() throws Exception {
+        renderer = newRenderer(3 * PAGE_BYTES, "downscale");
+
+        int width = renderer.renderStitched(a4Pages(2), null, image -> {
+            assertTrue(renderer.availableMemoryBytes() >= 0);
+            return image.getWidth();
+        });
+
+        // Raster bytes go with the square of the scale: 4 pages' worth into 3
+        assertTrue(width < 2 * 595 * Math.sqrt(3.0 / 4));
+        assertTrue(width > 2 * 595 * 0.8);
+    }
+
+    @Test
+    void budgetedWorkReleasesItsReservationOnFailure() throws Exception {
+        renderer = newRenderer(BUDGET, "reject");
+
+        assertThrows(IOException.class, () -> renderer.withMemory(1 << 20, () -> {
+            assertEquals(BUDGET - (1 << 20), renderer.availableMemoryBytes());
+            throw new IOException("decode failed");
+        }));
+        assertEquals(BUDGET, renderer.availableMemoryBytes());
+        assertEquals(1.0, renderer.budgetScale(BUDGET));
+        assertThrows(DocumentTooLargeException.class, () -> renderer.budgetScale(BUDGET + 1));
+    }
+
+    @Test
+    void documentWithoutPagesIsRejected() throws Exception {
+        renderer = newRenderer(BUDGET, "downscale");
+
+        assertThrows(EmptyDocumentException.class, () -> renderer.renderStitched(a4Pages(0), null, image -> 1));
+        assertThrows(EmptyDocumentException.class,
+                () -> renderer.renderPages(a4Pages(0), null, (pageIndex, image) -> 1));
+    }
+
+    @Test
+    void subsamplingHoldsFramesToTheMaxPixels() throws Exception {
+        renderer = newRenderer(BUDGET, "downscale");
+
+        assertEquals(1, renderer.subsampling(2000, 4000));
+        assertEquals(2, renderer.subsampling(4000, 4000));
+        assertEquals(4, renderer.subsampling(10000, 10000));
+    }
+
+    private static PdfPageRenderer newRenderer(long budgetBytes, String oversize) {
+        PdfPageRenderer renderer = new PdfPageRenderer(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(renderer, "threads", 1);
+        ReflectionTestUtils.setField(renderer, "queueCapacity", 4);
+        ReflectionTestUtils.setField(renderer, "maxParallelPerDocument", 1);
+        ReflectionTestUtils.setField(renderer, "dpi", 72f);
+        ReflectionTestUtils.setField(renderer, "maxPixels", 8_000_000L);
+        ReflectionTestUtils.setField(renderer, "minAdaptiveDpi", 48f);
+        ReflectionTestUtils.setField(renderer, "maxAdaptiveDpi", 300f);
+        ReflectionTestUtils.setField(renderer, "memoryMode", "main");
+        ReflectionTestUtils.setField(renderer, "maxMainMemoryBytes", 64L << 20);
+        ReflectionTestUtils.setField(renderer, "scratchDir", "");
+        ReflectionTestUtils.setField(renderer, "memoryBudgetBytes", budgetBytes);
+        ReflectionTestUtils.setField(renderer, "acquireTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(renderer, "oversizePolicy", oversize);
+        renderer.init();
+        return renderer;
+    }
+
+    private static byte[] a4Pages(int count) throws Exception {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < count; i++) {
+                document.addPage(new PDPage(PDRectangle.A4));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import redis.embedded.RedisServer;
+
+/**
+ * Two viewer nodes sharing one embedded Redis (6.2, for GETDEL): a token
+ * issued on one node is served once by the other.
+ */
+class RedisTokenStoreTest {
+
+    private static RedisServer redis;
+    private static int port;
+
+    private RedisTokenStore nodeA;
+    private RedisTokenStore nodeB;
+
+    @BeforeAll
+    static void startRedis() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        redis = new RedisServer(port);
+        redis.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws Exception {
+        redis.stop();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        nodeA = newNode();
+        nodeB = newNode();
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodeA.close();
+        nodeB.close();
+    }
+
+    @Test
+    void tokenIssuedOnOneNodeIsTakenOnAnother() throws Exception {
+        byte[] ciphertext = "sealed page".getBytes(StandardCharsets.UTF_8);
+        byte[] iv = new byte[16];
+        iv[0] = 7;
+        nodeA.put("otp:0", ciphertext, iv, System.currentTimeMillis() + 30_000);
+
+        TokenEntry entry = nodeB.take("otp:0");
+
+        assertArrayEquals(iv, entry.getPrefix());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry.getPayload().writeTo(out);
+        assertArrayEquals(ciphertext, out.toByteArray());
+        assertNull(nodeA.take("otp:0"));
+    }
+
+    @Test
+    void replayOnAnyNodeIsForbidden() throws Exception {
+        nodeA.put("otp:0", new byte[32], new byte[16], System.currentTimeMillis() + 30_000);
+        ImageController viewerB = new ImageController(null, null, null, null, null, nodeB, null, null,
+                mock(ViewerMetrics.class), null);
+        ImageController viewerA = new ImageController(null, null, null, null, null, nodeA, null, null,
+                mock(ViewerMetrics.class), null);
+
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        viewerB.getEncryptedImageData("otp", 0, first);
+        MockHttpServletResponse replay = new MockHttpServletResponse();
+        viewerA.getEncryptedImageData("otp", 0, replay);
+
+        assertEquals(200, first.getStatus());
+        assertEquals(48, first.getContentAsByteArray().length);
+        assertEquals(403, replay.getStatus());
+    }
+
+    @Test
+    void expiredTokenIsNotServed() {
+        nodeA.put("otp:0", new byte[32], new byte[16], System.currentTimeMillis() - 1);
+
+        assertNull(nodeB.take("otp:0"));
+    }
+
+    private static RedisTokenStore newNode() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PayloadStore payloads = new PayloadStore(registry);
+        ReflectionTestUtils.setField(payloads, "type", "heap");
+        ReflectionTestUtils.setField(payloads, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(payloads, "spillFile", "");
+        payloads.init();
+
+        RedisTokenStore store = new RedisTokenStore(payloads, registry);
+        ReflectionTestUtils.setField(store, "host", "localhost");
+        ReflectionTestUtils.setField(store, "port", port);
+        ReflectionTestUtils.setField(store, "password", "");
+        ReflectionTestUtils.setField(store, "database", 0);
+        ReflectionTestUtils.setField(store, "timeoutMs", 2000L);
+        ReflectionTestUtils.setField(store, "keyPrefix", "viewer:token:");
+        store.init();
+        return store;
+    }
+}
@@ -0,0 +1,105 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RenderedDocumentCacheTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void servesAnEntryUntilItsTtlRunsOut() throws Exception {
+        RenderedDocumentCache cache = newCache(1000, 50);
+        RenderedDocument document = document(100);
+        cache.put(key("a"), document);
+
+        assertSame(document, cache.get(key("a")));
+        Thread.sleep(80);
+
+        assertNull(cache.get(key("a")));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.bytes());
+        assertEquals(1, evictions("expired"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntriesWhenTheBudgetIsFull() {
+        RenderedDocumentCache cache = newCache(1000, 60_000);
+        RenderedDocument a = document(400);
+        RenderedDocument b = document(400);
+        cache.put(key("a"), a);
+        cache.put(key("b"), b);
+        // Touching a leaves b as the least recently used
+        cache.get(key("a"));
+
+        cache.put(key("c"), document(400));
+
+        assertSame(a, cache.get(key("a")));
+        assertNull(cache.get(key("b")));
+        assertEquals(2, cache.size());
+        assertEquals(800, cache.bytes());
+        assertEquals(1, evictions("size"));
+    }
+
+    @Test
+    void replacingAnEntryReweighsIt() {
+        RenderedDocumentCache cache = newCache(1000, 60_000);
+        cache.put(key("a"), document(400));
+        RenderedDocument replacement = document(700);
+
+        cache.put(key("a"), replacement);
+
+        assertSame(replacement, cache.get(key("a")));
+        assertEquals(700, cache.bytes());
+    }
+
+    @Test
+    void rejectsAnEntryLargerThanTheWholeBudget() {
+        RenderedDocumentCache cache = newCache(1000, 60_000);
+        RenderedDocument small = document(400);
+        cache.put(key("a"), small);
+
+        cache.put(key("big"), document(1001));
+
+        assertNull(cache.get(key("big")));
+        assertSame(small, cache.get(key("a")));
+        assertEquals(400, cache.bytes());
+        assertEquals(0, evictions("size"));
+    }
+
+    @Test
+    void aZeroBudgetDisablesTheCache() {
+        RenderedDocumentCache cache = newCache(0, 60_000);
+        cache.put(key("a"), document(1));
+
+        assertNull(cache.get(key("a")));
+        assertEquals(0, cache.size());
+    }
+
+    private RenderedDocumentCache newCache(long maxBytes, long ttlMs) {
+        RenderedDocumentCache cache = new RenderedDocumentCache(registry);
+        ReflectionTestUtils.setField(cache, "maxBytes", maxBytes);
+        ReflectionTestUtils.setField(cache, "ttlMs", ttlMs);
+        return cache;
+    }
+
+    private long evictions(String cause) {
+        return (long) registry.get("viewer.cache.evictions").tag("cause", cause).functionCounter().count();
+    }
+
+    private static RenderKey key(String caseId) {
+        return new RenderKey(new DocumentKey(caseId, "", "national id"), null);
+    }
+
+    private static RenderedDocument document(int bytes) {
+        return new RenderedDocument("entry", Collections.singletonList(new byte[bytes]), "image/png");
+    }
+}
@@ -0,0 +1,87 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> flights = new SingleFlight<>();
+
+    @Test
+    void callersArrivingDuringALoadShareIt() throws Exception {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        AtomicInteger loads = new AtomicInteger();
+
+        CompletableFuture<String> first = flights.execute("a", () -> {
+            loads.incrementAndGet();
+            return load;
+        });
+        CompletableFuture<String> second = flights.execute("a", () -> {
+            loads.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        CompletableFuture<String> other = flights.execute("b", () -> CompletableFuture.completedFuture("b"));
+
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+        assertEquals(1, flights.coalescedCount());
+        assertEquals("b", other.get());
+        assertEquals(1, flights.inFlight());
+
+        load.complete("a");
+        assertEquals("a", second.get());
+        assertEquals(0, flights.inFlight());
+    }
+
+    @Test
+    void keyIsReleasedBeforeCallersSeeTheResult() throws Exception {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> first = flights.execute("a", () -> load);
+        AtomicInteger inFlightSeen = new AtomicInteger(-1);
+        CompletableFuture<CompletableFuture<String>> next = first.thenApply(value -> {
+            inFlightSeen.set(flights.inFlight());
+            return flights.execute("a", () -> CompletableFuture.completedFuture("again"));
+        });
+
+        load.complete("a");
+
+        assertEquals(0, inFlightSeen.get());
+        assertNotSame(first, next.get());
+        assertEquals("again", next.get().get());
+        assertEquals(0, flights.coalescedCount());
+    }
+
+    @Test
+    void loaderThatThrowsFailsTheFlightAndReleasesTheKey() throws Exception {
+        CompletableFuture<String> failed = flights.execute("a", () -> {
+            throw new IllegalStateException("no upstream");
+        });
+
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertEquals(0, flights.inFlight());
+        assertEquals("a", flights.execute("a", () -> CompletableFuture.completedFuture("a")).get());
+    }
+
+    @Test
+    void loadThatFailsReleasesTheKey() throws Exception {
+        CompletableFuture<String> load = new CompletableFuture<>();
+        CompletableFuture<String> first = flights.execute("a", () -> load);
+        CompletableFuture<String> joined = flights.execute("a", CompletableFuture::new);
+
+        load.completeExceptionally(new IllegalStateException("no upstream"));
+
+        assertTrue(assertThrows(ExecutionException.class, joined::get).getCause() instanceof IllegalStateException);
+        assertTrue(first.isCompletedExceptionally());
+        assertEquals(0, flights.inFlight());
+    }
+}
@@ -0,0 +1,34 @@
+package com.nbk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ViewTimingsTest {
+
+    @Test
+    void mergedStagesAddToTheViewWithoutReachingItsListenerAgain() {
+        List<String> heard = new ArrayList<>();
+        ViewTimings load = new ViewTimings((stage, nanos) -> heard.add("load:" + stage));
+        load.record("upstream", 300);
+        load.record("render", 500);
+
+        ViewTimings view = new ViewTimings((stage, nanos) -> heard.add("view:" + stage));
+        view.record("validate", 100);
+        view.merge(load.stages());
+        view.record("render", 20);
+
+        Map<String, Long> expected = new LinkedHashMap<>();
+        expected.put("validate", 100L);
+        expected.put("upstream", 300L);
+        expected.put("render", 520L);
+        assertEquals(expected, view.stages());
+        assertEquals(Arrays.asList("load:upstream", "load:render", "view:validate", "view:render"), heard);
+    }
+}